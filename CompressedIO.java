@@ -0,0 +1,487 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * For Learning to Rank Machine Learning Project, SJSU 185C/267
+ *
+ * Opens input/output files for Data_Prep and TestRanking, compressed or not by file extension:
+ * - .gz   gzip, decompressed/compressed on a separate thread from parsing/formatting
+ * - .bgz  blocked gzip (BGZF: independent gzip members of at most 64KB with the block size in the header),
+ *         blocks are decompressed/compressed in parallel on a shared pool.  Plain gunzip/zcat also read it.
+ * - other plain text
+ *
+ * -Dmslr.compression.level=<0-9> sets the deflate level for output (default 6)
+ */
+public class CompressedIO {
+
+	private static final int CHUNK_SIZE = 1 << 16;
+	private static final int BLOCK_DATA_SIZE = 0xff00; // uncompressed bytes per BGZF block
+	private static final int BLOCK_HEADER_SIZE = 18;
+	private static final int QUEUE_DEPTH = 2 * Runtime.getRuntime().availableProcessors() + 2;
+	private static final int LEVEL = Integer.getInteger("mslr.compression.level", 6);
+
+	private static final ExecutorService POOL = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+			new ThreadFactory(){
+				public Thread newThread(Runnable r){
+					Thread t = new Thread(r, "compression");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	private CompressedIO(){}
+
+	/**
+	 *
+	 * @param path
+	 * @return true if path is opened as gzip or blocked gzip
+	 */
+	static boolean isCompressed(String path){
+		return path.endsWith(".gz") || path.endsWith(".bgz");
+	}
+
+	/**
+	 *
+	 * @param path plain, .gz or .bgz file
+	 * @return decompressed contents
+	 */
+	static InputStream openInputStream(String path) throws IOException{
+		if(path.endsWith(".bgz")) return new PipelinedInputStream(new FileInputStream(path), true);
+		if(path.endsWith(".gz")) return new PipelinedInputStream(new GZIPInputStream(new FileInputStream(path), CHUNK_SIZE), false);
+		return new FileInputStream(path);
+	}
+
+	/**
+	 *
+	 * @param path plain, .gz or .bgz file
+	 * @return reader of decompressed lines
+	 */
+	static BufferedReader openReader(String path) throws IOException{
+		return new BufferedReader(new InputStreamReader(openInputStream(path)), CHUNK_SIZE);
+	}
+
+	/**
+	 *
+	 * @param path plain, .gz or .bgz file (replaced)
+	 * @return stream compressed as path extension says, close to finish the file
+	 */
+	static OutputStream openOutputStream(String path) throws IOException{
+		if(path.endsWith(".bgz")) return new PipelinedOutputStream(new FileOutputStream(path), true);
+		if(path.endsWith(".gz")) return new PipelinedOutputStream(new GZIPOutputStream(new FileOutputStream(path), CHUNK_SIZE){
+			{
+				def.setLevel(LEVEL);
+			}
+		}, false);
+		return new BufferedOutputStream(new FileOutputStream(path), CHUNK_SIZE);
+	}
+
+	/**
+	 *
+	 * @param path plain, .gz or .bgz file (replaced)
+	 * @return writer, close to finish the file
+	 */
+	static PrintWriter openWriter(String path) throws IOException{
+		return new PrintWriter(new BufferedWriter(new OutputStreamWriter(openOutputStream(path)), CHUNK_SIZE));
+	}
+
+	/**
+	 *
+	 * @param path plain, .gz or .bgz file (replaced)
+	 * @return channel, plain files write straight to the FileChannel
+	 */
+	static WritableByteChannel openChannel(String path) throws IOException{
+		if(!isCompressed(path)) return new FileOutputStream(path).getChannel();
+		return Channels.newChannel(openOutputStream(path));
+	}
+
+	/**
+	 * one BGZF block (gzip member with BC extra field holding block size - 1)
+	 */
+	private static byte[] compressBlock(byte[] data, int length){
+		Deflater deflater = new Deflater(LEVEL, true);
+		deflater.setInput(data, 0, length);
+		deflater.finish();
+		byte[] block = new byte[BLOCK_HEADER_SIZE + length + 5*(length/16000 + 1) + 64 + 8];
+		int compressed = 0;
+		while(!deflater.finished()){
+			compressed += deflater.deflate(block, BLOCK_HEADER_SIZE + compressed, block.length - 8 - BLOCK_HEADER_SIZE - compressed);
+		}
+		deflater.end();
+		int size = BLOCK_HEADER_SIZE + compressed + 8;
+		byte[] header = {31, (byte) 139, 8, 4, 0, 0, 0, 0, 0, (byte) 255, 6, 0, 'B', 'C', 2, 0,
+				(byte) (size - 1), (byte) ((size - 1) >> 8)};
+		System.arraycopy(header, 0, block, 0, BLOCK_HEADER_SIZE);
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, length);
+		putIntLE(block, size - 8, (int) crc.getValue());
+		putIntLE(block, size - 4, length);
+		return Arrays.copyOf(block, size);
+	}
+
+	/**
+	 * @param block complete BGZF block
+	 * @param dataOffset start of deflate data (after header)
+	 * @return uncompressed contents
+	 */
+	private static byte[] decompressBlock(byte[] block, int dataOffset) throws IOException{
+		int size = block.length;
+		byte[] data = new byte[getIntLE(block, size - 4)];
+		Inflater inflater = new Inflater(true);
+		try{
+			inflater.setInput(block, dataOffset, size - 8 - dataOffset);
+			int n = 0;
+			while(n < data.length && !inflater.finished()){
+				int inflated = inflater.inflate(data, n, data.length - n);
+				if(inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+				n += inflated;
+			}
+			if(n != data.length) throw new IOException("Truncated BGZF block");
+		}
+		catch(DataFormatException e){
+			throw new IOException("Corrupt BGZF block: " + e.getMessage());
+		}
+		finally{
+			inflater.end();
+		}
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		if((int) crc.getValue() != getIntLE(block, size - 8)) throw new IOException("BGZF block CRC mismatch");
+		return data;
+	}
+
+	private static void putIntLE(byte[] b, int offset, int v){
+		b[offset] = (byte) v;
+		b[offset + 1] = (byte) (v >> 8);
+		b[offset + 2] = (byte) (v >> 16);
+		b[offset + 3] = (byte) (v >> 24);
+	}
+
+	private static int getIntLE(byte[] b, int offset){
+		return (b[offset] & 0xff) | (b[offset + 1] & 0xff) << 8 | (b[offset + 2] & 0xff) << 16 | (b[offset + 3] & 0xff) << 24;
+	}
+
+	/**
+	 * @return bytes read, less than b.length only at end of stream
+	 */
+	private static int readFully(InputStream in, byte[] b, int offset, int length) throws IOException{
+		int n = 0;
+		while(n < length){
+			int read = in.read(b, offset + n, length - n);
+			if(read < 0) break;
+			n += read;
+		}
+		return n;
+	}
+
+
+	/**
+	 * Reads ahead on its own thread into a bounded queue of chunks, so decompression (gzip) runs
+	 * alongside the consumer.  For BGZF each compressed block is handed to the pool and the queue holds
+	 * the pending results in file order, so blocks are decompressed in parallel.
+	 */
+	static class PipelinedInputStream extends InputStream {
+
+		private static final byte[] END = new byte[0];
+
+		private final BlockingQueue<Future<byte[]>> chunks = new ArrayBlockingQueue<Future<byte[]>>(QUEUE_DEPTH);
+		private final Thread reader;
+		private volatile IOException error;
+		private volatile boolean finished; // whole source read, END queued or about to be
+		private byte[] current = new byte[0];
+		private int position;
+
+		PipelinedInputStream(final InputStream source, final boolean blocked){
+			reader = new Thread("decompression"){
+				public void run(){
+					try{
+						while(true){
+							Future<byte[]> chunk = blocked ? readBlock(source) : readChunk(source);
+							if(chunk == null) break;
+							chunks.put(chunk);
+						}
+						finished = true;
+						chunks.put(CompletableFuture.completedFuture(END));
+					}
+					catch(InterruptedException e){
+						// closed by consumer (an END not queued is covered by finished)
+					}
+					catch(IOException e){
+						// error is also checked by take(), in case the failed chunk cannot be queued
+						error = e;
+						CompletableFuture<byte[]> failed = new CompletableFuture<byte[]>();
+						failed.completeExceptionally(e);
+						try{
+							chunks.put(failed);
+						}
+						catch(InterruptedException ie){
+							// closed by consumer
+						}
+					}
+					finally{
+						try{
+							source.close();
+						}
+						catch(IOException e){
+							// nothing more to read
+						}
+					}
+				}
+			};
+			reader.setDaemon(true);
+			reader.start();
+		}
+
+		private Future<byte[]> readChunk(InputStream source) throws IOException{
+			byte[] chunk = new byte[CHUNK_SIZE];
+			int n = readFully(source, chunk, 0, CHUNK_SIZE);
+			if(n == 0) return null;
+			return CompletableFuture.completedFuture(n == CHUNK_SIZE ? chunk : Arrays.copyOf(chunk, n));
+		}
+
+		private Future<byte[]> readBlock(InputStream source) throws IOException{
+			byte[] fixed = new byte[12];
+			int n = readFully(source, fixed, 0, 12);
+			if(n == 0) return null;
+			if(n < 12 || (fixed[0] & 0xff) != 31 || (fixed[1] & 0xff) != 139 || (fixed[3] & 4) == 0)
+				throw new IOException("Not a BGZF file (use .gz for plain gzip)");
+			int extraLength = (fixed[10] & 0xff) | (fixed[11] & 0xff) << 8;
+			byte[] extra = new byte[extraLength];
+			if(readFully(source, extra, 0, extraLength) < extraLength) throw new EOFException("Truncated BGZF header");
+			int blockSize = -1;
+			for(int i = 0; i + 4 <= extraLength; ){
+				int fieldLength = (extra[i + 2] & 0xff) | (extra[i + 3] & 0xff) << 8;
+				if(extra[i] == 'B' && extra[i + 1] == 'C' && fieldLength == 2)
+					blockSize = ((extra[i + 4] & 0xff) | (extra[i + 5] & 0xff) << 8) + 1;
+				i += 4 + fieldLength;
+			}
+			if(blockSize < 0) throw new IOException("Not a BGZF file (use .gz for plain gzip)");
+			final int dataOffset = 12 + extraLength;
+			final byte[] block = new byte[blockSize];
+			System.arraycopy(fixed, 0, block, 0, 12);
+			System.arraycopy(extra, 0, block, 12, extraLength);
+			if(readFully(source, block, dataOffset, blockSize - dataOffset) < blockSize - dataOffset)
+				throw new EOFException("Truncated BGZF block");
+			return POOL.submit(new Callable<byte[]>(){
+				public byte[] call() throws IOException{
+					return decompressBlock(block, dataOffset);
+				}
+			});
+		}
+
+		/**
+		 *  next queued chunk, waiting while the reader thread is running
+		 *  (if it stopped without queueing END or its error, reports that instead of blocking forever)
+		 */
+		private Future<byte[]> take() throws IOException, InterruptedException{
+			while(true){
+				Future<byte[]> chunk = chunks.poll(100, TimeUnit.MILLISECONDS);
+				if(chunk != null) return chunk;
+				if(!reader.isAlive()){
+					chunk = chunks.poll();
+					if(chunk != null) return chunk;
+					if(finished) return CompletableFuture.completedFuture(END);
+					current = END;
+					if(error != null) throw new IOException(error.getMessage(), error);
+					throw new IOException("Compressed input reader stopped before end of file");
+				}
+			}
+		}
+
+		/**
+		 * @return false at end of stream
+		 */
+		private boolean nextChunk() throws IOException{
+			while(position >= current.length){
+				if(current == END) return false;
+				try{
+					current = take().get();
+				}
+				catch(InterruptedException e){
+					throw new IOException("Interrupted reading compressed input");
+				}
+				catch(ExecutionException e){
+					current = END;
+					throw (e.getCause() instanceof IOException) ? (IOException) e.getCause() : new IOException(e.getCause());
+				}
+				position = 0;
+			}
+			return true;
+		}
+
+		public int read() throws IOException{
+			if(!nextChunk()) return -1;
+			return current[position++] & 0xff;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException{
+			if(len == 0) return 0;
+			if(!nextChunk()) return -1;
+			int n = Math.min(len, current.length - position);
+			System.arraycopy(current, position, b, off, n);
+			position += n;
+			return n;
+		}
+
+		public void close(){
+			reader.interrupt();
+			current = END;
+		}
+	}
+
+	/**
+	 * Collects output into chunks that are written to the sink by a separate thread, so compression
+	 * (gzip sink) runs alongside the producer.  For BGZF each chunk is compressed to a block on the pool
+	 * and the writer thread writes the blocks in order.
+	 */
+	static class PipelinedOutputStream extends OutputStream {
+
+		private static final byte[] END = new byte[0];
+
+		private final BlockingQueue<Future<byte[]>> chunks = new ArrayBlockingQueue<Future<byte[]>>(QUEUE_DEPTH);
+		private final boolean blocked;
+		private final Thread writer;
+		private volatile IOException error;
+		private byte[] current;
+		private int position;
+		private boolean closed;
+
+		PipelinedOutputStream(final OutputStream sink, boolean blocked){
+			this.blocked = blocked;
+			current = new byte[blocked ? BLOCK_DATA_SIZE : CHUNK_SIZE];
+			writer = new Thread("compression-writer"){
+				public void run(){
+					try{
+						while(true){
+							byte[] chunk = chunks.take().get();
+							if(chunk == END) break;
+							sink.write(chunk);
+						}
+						sink.close();
+					}
+					catch(InterruptedException e){
+						error = new IOException("Interrupted writing compressed output");
+					}
+					catch(ExecutionException e){
+						error = new IOException(e.getCause());
+					}
+					catch(IOException e){
+						error = e;
+					}
+					finally{
+						if(error != null){
+							chunks.clear();
+							try{
+								sink.close();
+							}
+							catch(IOException e){
+								// already failed
+							}
+						}
+					}
+				}
+			};
+			writer.setDaemon(true);
+			writer.start();
+		}
+
+		private void checkError() throws IOException{
+			// new exception each time, callers may see the failure more than once (write then close)
+			if(error != null) throw new IOException(error.getMessage(), error);
+			if(closed) throw new IOException("Stream closed");
+		}
+
+		private void submit(final byte[] data, final int length) throws IOException{
+			checkError();
+			Future<byte[]> chunk;
+			if(blocked && data != END){
+				chunk = POOL.submit(new Callable<byte[]>(){
+					public byte[] call(){
+						return compressBlock(data, length);
+					}
+				});
+			}
+			else chunk = CompletableFuture.completedFuture(length == data.length ? data : Arrays.copyOf(data, length));
+			try{
+				while(!chunks.offer(chunk, 100, TimeUnit.MILLISECONDS)) checkError();
+			}
+			catch(InterruptedException e){
+				throw new IOException("Interrupted writing compressed output");
+			}
+		}
+
+		public void write(int b) throws IOException{
+			if(position == current.length) flushChunk();
+			current[position++] = (byte) b;
+		}
+
+		public void write(byte[] b, int off, int len) throws IOException{
+			while(len > 0){
+				if(position == current.length) flushChunk();
+				int n = Math.min(len, current.length - position);
+				System.arraycopy(b, off, current, position, n);
+				position += n;
+				off += n;
+				len -= n;
+			}
+		}
+
+		private void flushChunk() throws IOException{
+			if(position == 0) return;
+			submit(current, position);
+			current = new byte[current.length];
+			position = 0;
+		}
+
+		public void flush() throws IOException{
+			checkError();
+		}
+
+		/**
+		 * writes remaining output (and BGZF end of file block), waits for writer thread
+		 */
+		public void close() throws IOException{
+			if(closed) return;
+			flushChunk();
+			// BGZF end of file marker is an empty block
+			if(blocked) submit(new byte[0], 0);
+			submit(END, 0);
+			closed = true;
+			try{
+				writer.join();
+			}
+			catch(InterruptedException e){
+				throw new IOException("Interrupted closing compressed output");
+			}
+			if(error != null) throw new IOException(error.getMessage(), error);
+		}
+	}
+}
@@ -6,6 +6,7 @@
  * - Converts from given format to csv (including qid)
  * - Samples csv (with qid) so that for each query there are a max of n documents at each relevance rating
  * - Converts csv file (with qid) to pairwise difference file (csv no qid)
+ * - Reads/writes .gz and .bgz files compressed (see CompressedIO)
  * 
  * --------------------------------
  * Designed to be used as a [clumsy] command line tool.  Some invalid inputs will cause a crash.  Run with no options to see
@@ -24,12 +25,13 @@
  * 
  * Create the header in mydata.arff then cat <thisprogramoutputfile> >> mydata.arff
  * then you should be able to use this format with weka etc
+ * 
+ * Or use output format arff/sparse-arff for option 4 and the header is generated (see PairwiseWriter)
  * ==========================
  */
 
 
 import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 
@@ -42,17 +44,28 @@ public class Data_Prep {
 										"2: Get Stats of CSV file ... Requires: <input filepath>\n" +
 										"3: Sample CSV for Pairwise Preparation ... Requires: <input filepath> <output filepath> <n> \n" +
 										"\t *n is the max number of documents per relevance rating for each query*\n" +
-										"4: Prepare Pairwise Data from CSV ... Requires: <input filepath> <output filepath>\n\n";
+										"4: Prepare Pairwise Data from CSV ... Requires: <input filepath> <output filepath> Optional: <features> <normalization spec> <pairs> <format>\n" +
+										"\t *features is a comma separated list of feature indices/ranges to output eg. 0-94,100,130-135 (default all)*\n" +
+										"\t *normalization spec is a file written by option 5, applied to features before differences are taken (default none)*\n" +
+										"\t *pairs is all, budget:<k>, gap:<k> or linear:<c> optionally followed by :<seed> (default all)*\n" +
+										"\t *format is one of " + PairwiseWriter.FORMATS + " (default csv), svmrank writes documents not pairs*\n" +
+										"5: Write Normalization Spec for CSV ... Requires: <input filepath> <output spec filepath> <mode>\n" +
+										"\t *mode is zscore or minmax (global stats of input) or query-minmax (per query, no stats)*\n" +
+										"6: Build Query Index (<input>.qidx) for CSV ... Requires: <input filepath> Optional: <n>\n" +
+										"\t *n is a number of shards of about equal document count to report*\n" +
+										"Input/output files ending in .gz (gzip) or .bgz (blocked gzip, parallel) are read/written compressed " +
+										"(not for option 6)\n\n";
 	
 	
 	public static void main(String[] args) {
 				
-		if(args.length < 2 || args.length > 4){
+		if(args.length < 2 || args.length > 7){
 			System.out.print(USAGE);
 			return;
 		}
 		
 		int option = Integer.parseInt(args[0]);
+		RankingMetrics.startPeriodicReport(System.out);
 		
 		switch (option) {
 		case 1:
@@ -79,12 +92,31 @@ public class Data_Prep {
 			break;
 		
 		case 4:
-			if (args.length != 3) {
+			if (args.length < 3) {
+				System.out.print(USAGE);
+				return;
+			}
+			generatePairwiseOutput(args[1], args[2],
+					FeatureProjection.parse(args.length >= 4 ? args[3] : null),
+					args.length >= 5 && !args[4].equals("none") ? args[4] : null,
+					PairSampler.parse(args.length >= 6 ? args[5] : null),
+					args.length == 7 ? args[6] : "csv");
+			break;
+		case 5:
+			if (args.length != 4) {
+				System.out.print(USAGE);
+				return;
+			}
+			writeNormalizationSpec(args[1], args[2], args[3]);
+			break;
+		case 6:
+			if (args.length != 2 && args.length != 3) {
 				System.out.print(USAGE);
 				return;
 			}
-			generatePairwiseOutput(args[1], args[2]);
+			buildQueryIndex(args[1], args.length == 3 ? Integer.parseInt(args[2]) : 0);
 		}
+		RankingMetrics.reportSummary();
 	}
 /**
  *		 Processes MSLR10K or MSLR30K input file by stripping field id's ( 0 qid:1
@@ -97,13 +129,14 @@ public class Data_Prep {
 	private static void rawMSLRToCSV(String inputFilePath, String outputFilePath) {
 		
 		try{
-			BufferedReader in = new BufferedReader(new FileReader(inputFilePath));
-			PrintWriter out = new PrintWriter(outputFilePath);
+			BufferedReader in = CompressedIO.openReader(inputFilePath);
+			PrintWriter out = CompressedIO.openWriter(outputFilePath);
 	
 			// strip labels, turn to csv
 			String line = in.readLine();
 			int recordNum = 0;
 			while (line != null) {
+				RankingMetrics.add(RankingMetrics.Counter.BYTES_READ, line.length() + 1);
 				String outputLine = "";
 				String[] split = line.split(" ");
 				outputLine += split[0]; // rating
@@ -112,6 +145,7 @@ public class Data_Prep {
 					outputLine += "," + attr[1];
 				}
 				out.println(outputLine);
+				RankingMetrics.add(RankingMetrics.Counter.BYTES_WRITTEN, outputLine.length() + 1);
 				if (recordNum % 10000 == 0)
 					System.out.println("Lines Processed: " + recordNum);
 				recordNum++;
@@ -120,7 +154,9 @@ public class Data_Prep {
 			out.flush();
 			in.close();
 			out.close();
-			System.out.println("csv done");
+			// PrintWriter keeps write errors (eg. disk full while compressing) to itself
+			if(out.checkError()) System.out.println("Error writing " + outputFilePath + ", output incomplete");
+			else System.out.println("csv done");
 		}
 		catch(Exception e){
 			System.out.println(e.getMessage());
@@ -136,7 +172,7 @@ public class Data_Prep {
 	 */
 	private static void csvRelevanceStats(String inputFilePath){
 		try{
-			BufferedReader in = new BufferedReader(new FileReader(inputFilePath));
+			BufferedReader in = CompressedIO.openReader(inputFilePath);
 			
 			System.out.println("Calculating relevance counts.....");
 			
@@ -147,10 +183,12 @@ public class Data_Prep {
 			int numQueries = 0;
 			int[][] ratingCount = new int[20000][];
 			while(line != null){
+				RankingMetrics.add(RankingMetrics.Counter.BYTES_READ, line.length() + 1);
 				prevQID = currQID;
-				currRecord = new Record(line);
+				currRecord = new Record(line, FeatureProjection.NONE);
 				currQID = currRecord.getQueryId();
 				if (currQID != prevQID) {
+					RankingMetrics.increment(RankingMetrics.Counter.QUERIES);
 					int[] scoreCount = {0,0,0,0,0};
 					for(Record r: records){
 						scoreCount[r.getRelevance()]++;
@@ -195,8 +233,8 @@ public class Data_Prep {
 	 
 	private static void sampleMSLRcsvForPairwise(int n, String inputFilePath, String outputFilePath){
 		try{
-			BufferedReader in = new BufferedReader(new FileReader(inputFilePath));
-			PrintWriter out = new PrintWriter(outputFilePath);
+			BufferedReader in = CompressedIO.openReader(inputFilePath);
+			PrintWriter out = CompressedIO.openWriter(outputFilePath);
 			System.out.println("Begin Sampling....");
 			
 			String line = in.readLine();
@@ -206,15 +244,18 @@ public class Data_Prep {
 			int queryNum = 1;
 			
 			while(line != null){
+				RankingMetrics.add(RankingMetrics.Counter.BYTES_READ, line.length() + 1);
 				prevQID = currQID;
-				currRecord = new Record(line);
+				currRecord = new Record(line, FeatureProjection.NONE);
 				currQID = currRecord.getQueryId();
 				if (currQID != prevQID) {
+					RankingMetrics.increment(RankingMetrics.Counter.QUERIES);
 					if(queryNum % 500 == 0) System.out.println("sampling query count " + queryNum); 
 					int[] rateCount = {0,0,0,0,0};
 					for(Record r: records){
 						if(rateCount[r.getRelevance()] < n){
 							out.println(r.toString());
+							RankingMetrics.add(RankingMetrics.Counter.BYTES_WRITTEN, r.toString().length() + 1);
 							rateCount[r.getRelevance()]++;
 						}
 					}
@@ -227,7 +268,8 @@ public class Data_Prep {
 			out.flush();
 			in.close();
 			out.close();
-			System.out.println("Sampling done");
+			if(out.checkError()) System.out.println("Error writing " + outputFilePath + ", output incomplete");
+			else System.out.println("Sampling done");
 		}
 		catch(Exception e){
 			System.out.println(e.getMessage());
@@ -245,12 +287,18 @@ public class Data_Prep {
 	 * 
 	 * @param inputFilePath mslr csv data
 	 * @param outputFilePath pairwise difference data
+	 * @param projection features to parse and output (label followed by projected features in index order)
+	 * @param normalizationSpecPath spec file from option 5, null for no normalization
+	 * @param sampler selects which unequal relevance pairs of each query are output
+	 * @param format output format, see PairwiseWriter
 
 	 */
-	private static void generatePairwiseOutput(String inputFilePath, String outputFilePath){
+	private static void generatePairwiseOutput(String inputFilePath, String outputFilePath, FeatureProjection projection,
+			String normalizationSpecPath, PairSampler sampler, String format){
 		try{
-			BufferedReader in = new BufferedReader(new FileReader(inputFilePath));
-			PrintWriter out = new PrintWriter(outputFilePath);
+			FeatureNormalizer normalizer = (normalizationSpecPath == null) ? null : FeatureNormalizer.load(normalizationSpecPath);
+			BufferedReader in = CompressedIO.openReader(inputFilePath);
+			PairwiseWriter out = PairwiseWriter.open(format, outputFilePath, projection);
 			
 			System.out.println("Processing Pairwise Output, this can take some time, as message " +
 					"will be output for every 100 queries processed");
@@ -261,30 +309,18 @@ public class Data_Prep {
 			ArrayList<Record> records = new ArrayList<Record>();
 			int numQueries = 0;
 			while (line != null) {
+				RankingMetrics.add(RankingMetrics.Counter.BYTES_READ, line.length() + 1);
 				prevQID = currQID;
-				currRecord = new Record(line);
+				currRecord = new Record(line, projection);
 				currQID = currRecord.getQueryId();
 				if (currQID != prevQID) {
 					numQueries++;
+					RankingMetrics.increment(RankingMetrics.Counter.QUERIES);
 					if (numQueries % 100 == 0)
 						System.out.println("Processing query count: " + numQueries);
-					int numRecords = records.size();
-					Record a, b;
-					for (int i = 0; i < numRecords; i++) {
-						a = records.get(i);
-						for (int j = i + 1; j < numRecords; j++) {
-							b = records.get(j);
-							// skip records with same relevance rating
-							if (a.getRelevance() != b.getRelevance()) {
-								// divide up between +1/-1 relevance rankings
-								if (j % 2 == 0)
-									out.println(a.difference(b));
-								else
-									out.println(b.difference(a));
-							}
-						}
-	
-					}
+					if (normalizer != null)
+						normalizer.normalize(records);
+					out.writeQuery(records, sampler);
 					// reset array list for next record
 					records.clear();
 				}
@@ -292,15 +328,53 @@ public class Data_Prep {
 				line = in.readLine();
 			}
 	
-			out.flush();
 			in.close();
 			out.close();
-			System.out.println("pairwise output done");
+			System.out.println("pairwise output done " + out.describe(sampler));
 	
 		}
 		catch(Exception e){
 			System.out.println(e.getMessage());
 		}
 	}
+	
+	/**
+	 * Computes global feature stats (mean/stddev/min/max) of an MSLR csv and writes normalization
+	 * spec used by option 4 and TestRanking (see FeatureNormalizer)
+	 * 
+	 * @param inputFilePath mslr csv data
+	 * @param specFilePath destination spec file
+	 * @param mode zscore, minmax or query-minmax
+	 */
+	private static void writeNormalizationSpec(String inputFilePath, String specFilePath, String mode){
+		try{
+			System.out.println("Calculating feature stats.....");
+			FeatureNormalizer.writeSpec(inputFilePath, specFilePath, FeatureNormalizer.parseMode(mode));
+			System.out.println("normalization spec done");
+		}
+		catch(Exception e){
+			System.out.println(e.getMessage());
+		}
+	}
+	
+	/**
+	 * Writes side-car query index (qid, byte offset/length, document count, relevance counts) for
+	 * MSLR csv, see QueryIndex
+	 * 
+	 * @param inputFilePath mslr csv data
+	 * @param numShards if > 0 shard split is output to System.out
+	 */
+	private static void buildQueryIndex(String inputFilePath, int numShards){
+		try{
+			System.out.println("Building query index.....");
+			QueryIndex index = QueryIndex.build(inputFilePath);
+			System.out.println("Indexed " + index.getEntries().size() + " queries to " + inputFilePath + QueryIndex.SUFFIX);
+			if(numShards > 0){
+				for(QueryIndex.Shard shard : index.shards(numShards)) System.out.println(shard);
+			}
+		}
+		catch(Exception e){
+			System.out.println(e.getMessage());
+		}
+	}
 }
-
@@ -0,0 +1,102 @@
+/**
+ * For Learning to Rank Machine Learning Project, SJSU 185C/267
+ *
+ * Numeric kernels over feature arrays used by Record, Query (batch pair differences), vector models
+ * (batch dot products) and FeatureNormalizer (per feature min/max/sum).
+ *
+ * INSTANCE is SimdFeatureKernels (jdk.incubator.vector) when that class can be loaded, ie. it was
+ * compiled and the JVM was started with --add-modules jdk.incubator.vector, otherwise the scalar loops
+ * below.  -Dmslr.kernels=scalar forces the scalar version.
+ */
+public abstract class FeatureKernels {
+
+	static final FeatureKernels INSTANCE = load();
+
+	private static FeatureKernels load(){
+		if("scalar".equals(System.getProperty("mslr.kernels"))) return new Scalar();
+		try{
+			return (FeatureKernels) Class.forName("SimdFeatureKernels").getDeclaredConstructor().newInstance();
+		}
+		catch(Throwable e){
+			// vector module not available
+			return new Scalar();
+		}
+	}
+
+	/**
+	 * out[outOff + k] = a[aOff + k] - b[bOff + k] for k < length
+	 */
+	abstract void subtract(double[] a, int aOff, double[] b, int bOff, double[] out, int outOff, int length);
+
+	/**
+	 * out[r] = rows[r*numFeatures ...] . weights  for r < numRows
+	 * @param rows row major block of numRows x numFeatures
+	 */
+	abstract void dot(double[] rows, int numFeatures, int numRows, double[] weights, double[] out);
+
+	/**
+	 * per feature (column) min, max and sum over numRows rows, min/max/sum are overwritten
+	 * @param rows row major block of numRows x numFeatures
+	 */
+	abstract void columnStats(double[] rows, int numFeatures, int numRows, double[] min, double[] max, double[] sum);
+
+	/**
+	 * batch pair differences over a query's feature block: row r - row j for r in [from, to), written
+	 * to consecutive rows of out.  Categorical positions are computed as (int) row r - row j, as Record.difference
+	 * @param block row major block of document features (numFeatures per document)
+	 * @param categorical projected positions of categorical features
+	 */
+	void differences(double[] block, int numFeatures, int from, int to, int j, double[] out, int[] categorical){
+		int jOff = j*numFeatures;
+		for(int r = from; r < to; r++){
+			int rOff = r*numFeatures, outOff = (r - from)*numFeatures;
+			subtract(block, rOff, block, jOff, out, outOff, numFeatures);
+			for(int k : categorical) out[outOff + k] = (int) block[rOff + k] - block[jOff + k];
+		}
+	}
+
+	/**
+	 *
+	 * @return name of implementation
+	 */
+	public String toString(){
+		return getClass().getSimpleName();
+	}
+
+
+	/**
+	 * plain loops
+	 */
+	static class Scalar extends FeatureKernels {
+
+		void subtract(double[] a, int aOff, double[] b, int bOff, double[] out, int outOff, int length){
+			for(int k = 0; k < length; k++) out[outOff + k] = a[aOff + k] - b[bOff + k];
+		}
+
+		void dot(double[] rows, int numFeatures, int numRows, double[] weights, double[] out){
+			for(int r = 0; r < numRows; r++){
+				double sum = 0;
+				int off = r*numFeatures;
+				for(int k = 0; k < numFeatures; k++) sum += rows[off + k]*weights[k];
+				out[r] = sum;
+			}
+		}
+
+		void columnStats(double[] rows, int numFeatures, int numRows, double[] min, double[] max, double[] sum){
+			for(int k = 0; k < numFeatures; k++){
+				min[k] = Double.POSITIVE_INFINITY;
+				max[k] = Double.NEGATIVE_INFINITY;
+				sum[k] = 0;
+			}
+			for(int r = 0; r < numRows; r++){
+				int off = r*numFeatures;
+				for(int k = 0; k < numFeatures; k++){
+					double x = rows[off + k];
+					if(x < min[k]) min[k] = x;
+					if(x > max[k]) max[k] = x;
+					sum[k] += x;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,186 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * For Learning to Rank Machine Learning Project, SJSU 185C/267
+ *
+ * Feature normalization applied in place to the feature arrays of Records as they stream through
+ * Data_Prep (pairwise output) and TestRanking, so no separate pass over the data is needed.
+ *
+ * Modes:
+ * - zscore: (x - mean)/stddev using global stats from spec file
+ * - minmax: (x - min)/(max - min) using global stats from spec file
+ * - query-minmax: (x - min)/(max - min) with min/max taken over the documents of each query
+ *
+ * Categorical features (95-99) are left as is.  A feature with no spread normalizes to 0.
+ *
+ * The same spec file must be used when generating training data and when scoring.  Spec file format
+ * (written by Data_Prep option 5):
+ * 		mode=<zscore|minmax|query-minmax>
+ * 		<feature index>,<mean>,<stddev>,<min>,<max>   // one line per feature, global modes only
+ */
+public class FeatureNormalizer {
+
+	enum Mode { ZSCORE, MINMAX, QUERY_MINMAX }
+
+	private final Mode mode;
+	// global stats by MSLR feature index (0-135)
+	private final double[] mean = new double[FeatureProjection.NUM_FEATURES];
+	private final double[] stddev = new double[FeatureProjection.NUM_FEATURES];
+	private final double[] min = new double[FeatureProjection.NUM_FEATURES];
+	private final double[] max = new double[FeatureProjection.NUM_FEATURES];
+
+	private FeatureNormalizer(Mode mode){
+		this.mode = mode;
+	}
+
+	/**
+	 *
+	 * @param name zscore, minmax or query-minmax
+	 * @return mode
+	 */
+	static Mode parseMode(String name){
+		return Mode.valueOf(name.trim().toUpperCase().replace('-', '_'));
+	}
+
+	/**
+	 *
+	 * @param specFilePath spec file (see class comment)
+	 * @return normalizer described by spec
+	 */
+	static FeatureNormalizer load(String specFilePath) throws Exception{
+		BufferedReader in = new BufferedReader(new FileReader(specFilePath));
+		String line = in.readLine();
+		if(line == null || !line.startsWith("mode=")){
+			in.close();
+			throw new IllegalArgumentException("Normalization spec " + specFilePath + " must start with mode=");
+		}
+		FeatureNormalizer normalizer = new FeatureNormalizer(parseMode(line.substring(5)));
+		line = in.readLine();
+		while(line != null){
+			String[] fields = line.split(",");
+			int i = Integer.parseInt(fields[0]);
+			normalizer.mean[i] = Double.parseDouble(fields[1]);
+			normalizer.stddev[i] = Double.parseDouble(fields[2]);
+			normalizer.min[i] = Double.parseDouble(fields[3]);
+			normalizer.max[i] = Double.parseDouble(fields[4]);
+			line = in.readLine();
+		}
+		in.close();
+		return normalizer;
+	}
+
+	/**
+	 * accumulates global feature stats over all records in an MSLR csv and writes spec file
+	 *
+	 * @param inputFilePath MSLR csv
+	 * @param specFilePath destination spec file
+	 * @param mode
+	 */
+	static void writeSpec(String inputFilePath, String specFilePath, Mode mode) throws Exception{
+		int n = FeatureProjection.NUM_FEATURES;
+		double[] mean = new double[n], m2 = new double[n], min = new double[n], max = new double[n];
+		long count = 0;
+		if(mode != Mode.QUERY_MINMAX){
+			BufferedReader in = CompressedIO.openReader(inputFilePath);
+			String line = in.readLine();
+			while(line != null){
+				RankingMetrics.add(RankingMetrics.Counter.BYTES_READ, line.length() + 1);
+				double[] features = new Record(line).getFeatures();
+				count++;
+				for(int i = 0; i < n; i++){
+					double x = features[i];
+					// Welford running mean/variance
+					double delta = x - mean[i];
+					mean[i] += delta/count;
+					m2[i] += delta*(x - mean[i]);
+					if(count == 1 || x < min[i]) min[i] = x;
+					if(count == 1 || x > max[i]) max[i] = x;
+				}
+				line = in.readLine();
+			}
+			in.close();
+		}
+		PrintWriter out = new PrintWriter(specFilePath);
+		out.println("mode=" + mode.name().toLowerCase().replace('_', '-'));
+		if(count > 0){
+			for(int i = 0; i < n; i++){
+				out.println(i + "," + mean[i] + "," + Math.sqrt(m2[i]/count) + "," + min[i] + "," + max[i]);
+			}
+		}
+		out.close();
+	}
+
+	/**
+	 *
+	 * @return normalization mode
+	 */
+	Mode getMode(){
+		return mode;
+	}
+
+	/**
+	 * normalizes features of all records of one query in place
+	 * (records must use the same FeatureProjection)
+	 * @param records documents of a single query
+	 */
+	void normalize(List<Record> records){
+		if(records.isEmpty()) return;
+		if(mode != Mode.QUERY_MINMAX){
+			for(Record r : records) normalize(r);
+			return;
+		}
+		FeatureProjection projection = records.get(0).getProjection();
+		int numFeatures = projection.size();
+		double[] block = new double[records.size() * numFeatures];
+		for(int r = 0; r < records.size(); r++){
+			System.arraycopy(records.get(r).getFeatures(), 0, block, r * numFeatures, numFeatures);
+		}
+		double[] lo = new double[numFeatures], hi = new double[numFeatures], sum = new double[numFeatures];
+		FeatureKernels.INSTANCE.columnStats(block, numFeatures, records.size(), lo, hi, sum);
+		for(int k = 0; k < numFeatures; k++){
+			if(FeatureProjection.isCategorical(projection.getFeatureIndex(k))) continue;
+			double range = hi[k] - lo[k];
+			for(Record r : records){
+				double[] features = r.getFeatures();
+				features[k] = range > 0 ? (features[k] - lo[k])/range : 0;
+			}
+		}
+	}
+
+	/**
+	 * normalizes features of all records of query in place
+	 * (normalize before ranking, scores kept for incremental re-ranking are not recomputed)
+	 * @param query
+	 */
+	void normalize(Query query){
+		ArrayList<Record> records = new ArrayList<Record>(query.getNumRecords());
+		for(int i = 0; i < query.getNumRecords(); i++) records.add(query.getRecordAt(i));
+		normalize(records);
+	}
+
+	/**
+	 * normalizes features of record in place using global stats (not valid for query-minmax)
+	 * @param r
+	 */
+	void normalize(Record r){
+		if(mode == Mode.QUERY_MINMAX)
+			throw new IllegalStateException("query-minmax normalization requires all records of the query");
+		FeatureProjection projection = r.getProjection();
+		double[] features = r.getFeatures();
+		for(int k = 0; k < features.length; k++){
+			int i = projection.getFeatureIndex(k);
+			if(FeatureProjection.isCategorical(i)) continue;
+			if(mode == Mode.ZSCORE){
+				features[k] = stddev[i] > 0 ? (features[k] - mean[i])/stddev[i] : 0;
+			}
+			else{
+				double range = max[i] - min[i];
+				features[k] = range > 0 ? (features[k] - min[i])/range : 0;
+			}
+		}
+	}
+}
@@ -0,0 +1,127 @@
+import java.util.Arrays;
+
+/**
+ * For Learning to Rank Machine Learning Project, SJSU 185C/267
+ *
+ * Subset of the 136 MSLR features (by 0 based feature index) that a Record parses and stores and that
+ * Record.difference emits, in ascending index order.  Fields of features outside the projection are
+ * skipped while parsing without being converted to doubles.
+ *
+ * spec is a comma separated list of indices and ranges eg. "0-4,10,95-99,130-135"
+ * "all" (or null) is every feature, "none" is no features (relevance and qid only)
+ */
+public class FeatureProjection {
+
+	static final int NUM_FEATURES = 136;
+
+	static final FeatureProjection ALL = parse("all");
+	static final FeatureProjection NONE = parse("none");
+
+	private final int[] indices; // projected position -> feature index
+	private final int[] positions; // feature index -> projected position, -1 if not projected
+	private final int[] categoricalPositions; // projected positions of features 95-99
+
+	private FeatureProjection(int[] indices){
+		this.indices = indices;
+		positions = new int[NUM_FEATURES];
+		Arrays.fill(positions, -1);
+		for(int k = 0; k < indices.length; k++) positions[indices[k]] = k;
+		int numCategorical = 0;
+		for(int i : indices) if(isCategorical(i)) numCategorical++;
+		categoricalPositions = new int[numCategorical];
+		numCategorical = 0;
+		for(int k = 0; k < indices.length; k++) if(isCategorical(indices[k])) categoricalPositions[numCategorical++] = k;
+	}
+
+	/**
+	 *
+	 * @param spec see class comment
+	 * @return projection described by spec
+	 */
+	static FeatureProjection parse(String spec){
+		if(spec == null || spec.trim().equalsIgnoreCase("all")){
+			int[] all = new int[NUM_FEATURES];
+			for(int i = 0; i < NUM_FEATURES; i++) all[i] = i;
+			return new FeatureProjection(all);
+		}
+		boolean[] selected = new boolean[NUM_FEATURES];
+		if(!spec.trim().equalsIgnoreCase("none")){
+			for(String part : spec.split(",")){
+				part = part.trim();
+				int dash = part.indexOf('-');
+				int from = Integer.parseInt(dash < 0 ? part : part.substring(0, dash).trim());
+				int to = dash < 0 ? from : Integer.parseInt(part.substring(dash + 1).trim());
+				if(from < 0 || to >= NUM_FEATURES || from > to)
+					throw new IllegalArgumentException("Invalid feature range \"" + part + "\", valid: 0-135");
+				for(int i = from; i <= to; i++) selected[i] = true;
+			}
+		}
+		int count = 0;
+		for(boolean s : selected) if(s) count++;
+		int[] indices = new int[count];
+		count = 0;
+		for(int i = 0; i < NUM_FEATURES; i++) if(selected[i]) indices[count++] = i;
+		return new FeatureProjection(indices);
+	}
+
+	/**
+	 *
+	 * @return number of projected features
+	 */
+	int size(){
+		return indices.length;
+	}
+
+	/**
+	 *
+	 * @param k projected position (0 - size()-1)
+	 * @return MSLR feature index (0-135)
+	 */
+	int getFeatureIndex(int k){
+		return indices[k];
+	}
+
+	/**
+	 *
+	 * @param featureIndex MSLR feature index (0-135)
+	 * @return projected position of feature, -1 if not projected
+	 */
+	int getPosition(int featureIndex){
+		return positions[featureIndex];
+	}
+
+	/**
+	 *
+	 * @return projected positions of categorical features (do not modify)
+	 */
+	int[] getCategoricalPositions(){
+		return categoricalPositions;
+	}
+
+	/**
+	 * boolean features 95-99 produce categorical {-1, 0, 1} differences
+	 * @param featureIndex MSLR feature index (0-135)
+	 * @return
+	 */
+	static boolean isCategorical(int featureIndex){
+		return featureIndex > 94 && featureIndex < 100;
+	}
+
+	/**
+	 * spec that parses back to this projection
+	 */
+	public String toString(){
+		if(indices.length == NUM_FEATURES) return "all";
+		if(indices.length == 0) return "none";
+		StringBuilder spec = new StringBuilder();
+		for(int k = 0; k < indices.length; k++){
+			int end = k;
+			while(end + 1 < indices.length && indices[end + 1] == indices[end] + 1) end++;
+			if(spec.length() > 0) spec.append(',');
+			spec.append(indices[k]);
+			if(end > k) spec.append('-').append(indices[end]);
+			k = end;
+		}
+		return spec.toString();
+	}
+}
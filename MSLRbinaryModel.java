@@ -7,7 +7,7 @@
 
 
 
-public interface MSLRbinaryModel
+public non-sealed interface MSLRbinaryModel extends MSLRpairwiseModel
 {
 	
 
@@ -1,5 +1,5 @@
 
-public interface MSLRcontinuousModel {
+public non-sealed interface MSLRcontinuousModel extends MSLRpairwiseModel {
 	
 	
 	/*
@@ -0,0 +1,9 @@
+
+public class MSLRdummyPointwise implements MSLRpointwiseModel{
+
+	@Override
+	public void score(double[] features, int numRows, int numFeatures, double[] out) {
+		for(int r = 0; r < numRows; r++) out[r] = Math.random();
+	}
+
+}
@@ -0,0 +1,69 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+
+/**
+ *
+ * Logistic regression over pairwise differences with weights from a text file, scored with
+ * FeatureKernels dot products (vectorized when available)
+ *
+ * weights file:
+ * 		bias,<b>
+ * 		<feature index 0-135>,<weight>    // features not listed have weight 0
+ *
+ * predict returns 1/(1 + e^-(b + w.(a-b)))
+ * score (pointwise) returns w.a, which orders documents as the pairwise predictions do (w.(a-b) = w.a - w.b)
+ *
+ */
+public class MSLRlogisticModel implements MSLRvectorModel, MSLRpointwiseModel {
+
+	private double bias;
+	private double[] weights; // by projected position
+	private double[] row;
+	private double[] score = new double[1];
+
+	/**
+	 * @param weightsFile see class comment
+	 * @param projection features of the differences that will be scored
+	 */
+	public MSLRlogisticModel(String weightsFile, FeatureProjection projection){
+		weights = new double[projection.size()];
+		row = new double[projection.size()];
+		try{
+			BufferedReader in = new BufferedReader(new FileReader(weightsFile));
+			String line = in.readLine();
+			while(line != null){
+				String[] fields = line.split(",");
+				if(fields[0].trim().equals("bias")) bias = Double.parseDouble(fields[1]);
+				else{
+					int k = projection.getPosition(Integer.parseInt(fields[0].trim()));
+					if(k >= 0) weights[k] = Double.parseDouble(fields[1]);
+				}
+				line = in.readLine();
+			}
+			in.close();
+		}
+		catch(Exception e){
+			System.out.println("Exception logistic model constructor: " + e.getMessage());
+		}
+	}
+
+	@Override
+	public double predict(String difference) {
+		String[] fields = difference.split(",");
+		for(int k = 0; k < row.length; k++) row[k] = Double.parseDouble(fields[k + 1]);
+		predict(row, 1, row.length, score);
+		return score[0];
+	}
+
+	@Override
+	public void predict(double[] differences, int numRows, int numFeatures, double[] out) {
+		FeatureKernels.INSTANCE.dot(differences, numFeatures, numRows, weights, out);
+		for(int r = 0; r < numRows; r++) out[r] = 1.0/(1.0 + Math.exp(-(bias + out[r])));
+	}
+
+	@Override
+	public void score(double[] features, int numRows, int numFeatures, double[] out) {
+		FeatureKernels.INSTANCE.dot(features, numFeatures, numRows, weights, out);
+	}
+
+}
@@ -0,0 +1,8 @@
+
+/**
+ * any model TestRanking can rank with: MSLRpairwiseModel (binary or continuous, compares pairs of documents)
+ * or MSLRpointwiseModel (scores single documents, cascade first stage only).
+ * Sealed, so a model always implements one of these and code taking an MSLRmodel can tell which by instanceof
+ */
+public sealed interface MSLRmodel permits MSLRpairwiseModel, MSLRpointwiseModel {
+}
@@ -0,0 +1,6 @@
+
+/**
+ * model comparing pairs of documents, MSLRbinaryModel or MSLRcontinuousModel (see MSLRmodel)
+ */
+public sealed interface MSLRpairwiseModel extends MSLRmodel permits MSLRbinaryModel, MSLRcontinuousModel {
+}
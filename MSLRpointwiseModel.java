@@ -0,0 +1,14 @@
+
+/**
+ * model scoring single documents rather than pairs, used as a cheap first stage of a cascade
+ * (see Query.performRankingCascade)
+ */
+public non-sealed interface MSLRpointwiseModel extends MSLRmodel {
+	
+	
+	/*
+	 * features is a row major block of numRows documents, numFeatures projected features each (label not included).
+	 * out[r] receives the score of document r, higher is better
+	 */
+	void score(double[] features, int numRows, int numFeatures, double[] out);
+}
@@ -0,0 +1,14 @@
+
+/**
+ * continuous model that can also score pairwise differences given as numbers, a batch at a time
+ * (Query uses this to skip building difference Strings)
+ */
+public interface MSLRvectorModel extends MSLRcontinuousModel {
+	
+	
+	/*
+	 * differences is a row major block of numRows pairwise differences (a-b), numFeatures projected features each
+	 * (label not included).  out[r] receives confidence that a beats b for row r
+	 */
+	void predict(double[] differences, int numRows, int numFeatures, double[] out);
+}
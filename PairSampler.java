@@ -0,0 +1,151 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * For Learning to Rank Machine Learning Project, SJSU 185C/267
+ *
+ * Chooses which unequal relevance pairs of a query are written as pairwise training data, to limit the
+ * quadratic blowup of emitting every pair.  Pairs are selected in one streaming pass over the candidate
+ * pairs of each query (reservoir sampling) with a seedable Random, so runs are reproducible.
+ *
+ * spec: <strategy>[:<param>][:<seed>]
+ * - all             every unequal relevance pair (default)
+ * - budget:<k>      uniform sample of at most k pairs per query
+ * - gap:<k>         at most k pairs per query, sampled with weight |relevance a - relevance b| (prefers 4-vs-0 to 1-vs-0)
+ * - linear:<c>      uniform sample of at most c * (number of documents) pairs per query
+ */
+public class PairSampler {
+
+	enum Strategy { ALL, BUDGET, GAP, LINEAR }
+
+	private final Strategy strategy;
+	private final double param;
+	private final Random rng;
+	private long possiblePairs;
+	private long keptPairs;
+
+	private PairSampler(Strategy strategy, double param, long seed){
+		this.strategy = strategy;
+		this.param = param;
+		rng = new Random(seed);
+	}
+
+	/**
+	 *
+	 * @param spec see class comment, null for all
+	 * @return sampler described by spec
+	 */
+	static PairSampler parse(String spec){
+		if(spec == null) return new PairSampler(Strategy.ALL, 0, 0);
+		String[] parts = spec.trim().split(":");
+		Strategy strategy = Strategy.valueOf(parts[0].toUpperCase());
+		if(strategy != Strategy.ALL && parts.length < 2)
+			throw new IllegalArgumentException("Pair sampling strategy " + parts[0] + " requires a parameter eg. " + parts[0] + ":100");
+		double param = parts.length > 1 ? Double.parseDouble(parts[1]) : 0;
+		if(!(param >= 0))
+			throw new IllegalArgumentException("Invalid pair sampling \"" + spec + "\", parameter must be at least 0");
+		long seed = parts.length > 2 ? Long.parseLong(parts[2]) : 0;
+		return new PairSampler(strategy, param, seed);
+	}
+
+	/**
+	 * selects pairs (i < j, unequal relevance) of one query
+	 * @param records documents of a single query
+	 * @return selected pairs encoded as i * records.size() + j, ascending
+	 */
+	int[] select(List<Record> records){
+		int n = records.size();
+		int[] relevance = new int[n];
+		for(int i = 0; i < n; i++) relevance[i] = records.get(i).getRelevance();
+
+		long budget;
+		switch(strategy){
+		case BUDGET:
+		case GAP:
+			budget = (long) param;
+			break;
+		case LINEAR:
+			budget = (long) (param * n);
+			break;
+		default:
+			budget = Long.MAX_VALUE;
+		}
+		int capacity = (int) Math.min(budget, (long) n * (n - 1) / 2);
+
+		int[] selected;
+		long seen = 0;
+		if(strategy == Strategy.GAP){
+			// weighted reservoir (Efraimidis-Spirakis): keep the k largest u^(1/w)
+			PriorityQueue<double[]> reservoir = new PriorityQueue<double[]>(Math.max(1, capacity), new Comparator<double[]>(){
+				public int compare(double[] a, double[] b){
+					return Double.compare(a[0], b[0]);
+				}
+			});
+			for(int i = 0; i < n; i++){
+				for(int j = i + 1; j < n; j++){
+					int gap = Math.abs(relevance[i] - relevance[j]);
+					if(gap == 0) continue;
+					seen++;
+					if(capacity == 0) continue;
+					double key = Math.pow(rng.nextDouble(), 1.0/gap);
+					if(reservoir.size() < capacity) reservoir.add(new double[]{key, i*n + j});
+					else if(key > reservoir.peek()[0]){
+						reservoir.poll();
+						reservoir.add(new double[]{key, i*n + j});
+					}
+				}
+			}
+			selected = new int[reservoir.size()];
+			int k = 0;
+			for(double[] entry : reservoir) selected[k++] = (int) entry[1];
+		}
+		else{
+			// uniform reservoir (algorithm R), all pairs fit when budget is unlimited
+			selected = new int[capacity];
+			for(int i = 0; i < n; i++){
+				for(int j = i + 1; j < n; j++){
+					if(relevance[i] == relevance[j]) continue;
+					if(seen < capacity) selected[(int) seen] = i*n + j;
+					else{
+						long r = (long) (rng.nextDouble() * (seen + 1));
+						if(r < capacity) selected[(int) r] = i*n + j;
+					}
+					seen++;
+				}
+			}
+			if(seen < capacity) selected = Arrays.copyOf(selected, (int) seen);
+		}
+		Arrays.sort(selected);
+		possiblePairs += seen;
+		keptPairs += selected.length;
+		return selected;
+	}
+
+	/**
+	 *
+	 * @return unequal relevance pairs seen by select() so far
+	 */
+	long getPossiblePairs(){
+		return possiblePairs;
+	}
+
+	/**
+	 *
+	 * @return pairs returned by select() so far
+	 */
+	long getKeptPairs(){
+		return keptPairs;
+	}
+
+	/**
+	 * kept vs possible pair counts
+	 */
+	public String toString(){
+		return "[Pairs " + strategy.name().toLowerCase() + (strategy == Strategy.ALL ? "" : ":" + (param == (long) param ? String.valueOf((long) param) : String.valueOf(param))) + ": kept "
+				+ keptPairs + " of " + possiblePairs + " possible ("
+				+ (possiblePairs == 0 ? 100.0 : Math.round(1000.0*keptPairs/possiblePairs)/10.0) + "%)]";
+	}
+}
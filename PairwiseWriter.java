@@ -0,0 +1,351 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+/**
+ * For Learning to Rank Machine Learning Project, SJSU 185C/267
+ *
+ * Writes pairwise difference records (label, projected a - b features) for Data_Prep option 4
+ * (svmrank writes the documents of each query instead, SVMrank forms the pairs itself).
+ * All formats write through one large reusable NIO buffer; numbers are formatted straight into
+ * the buffer (integral values digit by digit, others through a reused StringBuilder, no String per value).
+ *
+ * Formats:
+ * - csv:          label,f0,f1,... (original Data_Prep output)
+ * - arff:         ARFF header (label {-1,1}, categorical features 95-99 {-1,0,1}, others numeric) then dense rows
+ * - sparse-arff:  as arff, rows as {index value,...} with zero features skipped
+ * - libsvm:       label index:value ... (1 based MSLR feature index, zero features skipped)
+ * - svmrank:      relevance qid:<qid> index:value ... one row per document (projected features, zeros skipped)
+ * - binary:       per pair 1 + <number of projected features> little-endian floats (label first), no header
+ */
+public abstract class PairwiseWriter {
+
+	static final String FORMATS = "csv, arff, sparse-arff, libsvm, svmrank, binary";
+
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final int MAX_NUMBER_LENGTH = 32;
+
+	protected final FeatureProjection projection;
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer;
+	private final byte[] digits = new byte[20];
+	private final StringBuilder decimal = new StringBuilder(MAX_NUMBER_LENGTH);
+
+	protected PairwiseWriter(WritableByteChannel channel, FeatureProjection projection){
+		this.channel = channel;
+		this.projection = projection;
+		buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 *
+	 * @param format one of FORMATS
+	 * @param outputFilePath
+	 * @param projection features of records that will be written
+	 * @return writer, header (if any) already written
+	 */
+	static PairwiseWriter open(String format, String outputFilePath, FeatureProjection projection) throws IOException{
+		WritableByteChannel channel = CompressedIO.openChannel(outputFilePath);
+		PairwiseWriter writer;
+		if(format.equals("csv")) writer = new Csv(channel, projection);
+		else if(format.equals("arff")) writer = new Arff(channel, projection, false);
+		else if(format.equals("sparse-arff")) writer = new Arff(channel, projection, true);
+		else if(format.equals("libsvm")) writer = new LibSvm(channel, projection);
+		else if(format.equals("svmrank")) writer = new SvmRank(channel, projection);
+		else if(format.equals("binary")) writer = new Binary(channel, projection);
+		else{
+			channel.close();
+			throw new IllegalArgumentException("Unknown output format " + format + ", valid: " + FORMATS);
+		}
+		writer.writeHeader();
+		return writer;
+	}
+
+	/**
+	 * writes the output for one query: the pairs selected by sampler, or its documents (svmrank)
+	 * @param records documents of one query, in file order
+	 * @param sampler pair selection
+	 */
+	abstract void writeQuery(List<Record> records, PairSampler sampler) throws IOException;
+
+	/**
+	 *
+	 * @param sampler pair selection passed to writeQuery
+	 * @return what was written for each query, for the done message
+	 */
+	abstract String describe(PairSampler sampler);
+
+	/**
+	 * flushes buffer and closes output
+	 */
+	void close() throws IOException{
+		drain();
+		channel.close();
+	}
+
+	protected void writeHeader() throws IOException{
+	}
+
+	/**
+	 * makes sure at least n bytes are free in buffer
+	 */
+	protected final void ensure(int n) throws IOException{
+		if(buffer.remaining() < n) drain();
+	}
+
+	private void drain() throws IOException{
+		buffer.flip();
+		RankingMetrics.add(RankingMetrics.Counter.BYTES_WRITTEN, buffer.remaining());
+		while(buffer.hasRemaining()) channel.write(buffer);
+		buffer.clear();
+	}
+
+	protected final void putByte(char c) throws IOException{
+		ensure(1);
+		buffer.put((byte) c);
+	}
+
+	protected final void putAscii(String s) throws IOException{
+		for(int i = 0; i < s.length(); i++) putByte(s.charAt(i));
+	}
+
+	protected final void putLong(long v) throws IOException{
+		ensure(MAX_NUMBER_LENGTH);
+		if(v < 0){
+			buffer.put((byte) '-');
+			if(v == Long.MIN_VALUE){
+				putAscii("9223372036854775808");
+				return;
+			}
+			v = -v;
+		}
+		int n = 0;
+		do{
+			digits[n++] = (byte) ('0' + v % 10);
+			v /= 10;
+		} while(v > 0);
+		while(n > 0) buffer.put(digits[--n]);
+	}
+
+	/**
+	 * same text as Double.toString(v), integral values below 1e7 formatted directly
+	 */
+	protected final void putDouble(double v) throws IOException{
+		if(v == (long) v && Math.abs(v) < 1e7){
+			if(v == 0 && Double.doubleToRawLongBits(v) < 0) putByte('-');
+			putLong((long) v);
+			putByte('.');
+			putByte('0');
+		}
+		else putDecimal(v);
+	}
+
+	/**
+	 * shortest text for categorical/sparse values: integral values without ".0"
+	 */
+	protected final void putNumber(double v) throws IOException{
+		if(v == (long) v && Math.abs(v) < 1e15) putLong((long) v);
+		else putDecimal(v);
+	}
+
+	/**
+	 * Double.toString(v) text without creating a String (StringBuilder.append(double) formats
+	 * into the builder through the JDK's per thread digit buffer)
+	 */
+	private void putDecimal(double v) throws IOException{
+		decimal.setLength(0);
+		decimal.append(v);
+		int n = decimal.length();
+		ensure(n);
+		for(int i = 0; i < n; i++) buffer.put((byte) decimal.charAt(i));
+	}
+
+	/**
+	 * index:value for non zero values (1 based MSLR feature index)
+	 */
+	protected final void putSparse(double[] values) throws IOException{
+		for(int k = 0; k < values.length; k++){
+			if(values[k] == 0) continue;
+			putByte(' ');
+			putLong(projection.getFeatureIndex(k) + 1);
+			putByte(':');
+			putNumber(values[k]);
+		}
+	}
+
+	protected final void putFloatLE(float v) throws IOException{
+		ensure(4);
+		buffer.putFloat(v);
+	}
+
+
+	/**
+	 * writers of pairwise difference rows (every format except svmrank)
+	 */
+	abstract static class Pairs extends PairwiseWriter {
+
+		protected final double[] difference;
+
+		protected Pairs(WritableByteChannel channel, FeatureProjection projection){
+			super(channel, projection);
+			difference = new double[projection.size()];
+		}
+
+		void writeQuery(List<Record> records, PairSampler sampler) throws IOException{
+			int numRecords = records.size();
+			// pairs with same relevance rating are never selected
+			for(int pair : sampler.select(records)){
+				int i = pair / numRecords, j = pair % numRecords;
+				// divide up between +1/-1 relevance rankings
+				if(j % 2 == 0) write(records.get(i), records.get(j));
+				else write(records.get(j), records.get(i));
+			}
+		}
+
+		String describe(PairSampler sampler){
+			return sampler.toString();
+		}
+
+		/**
+		 * writes pairwise record a - b
+		 * @param a
+		 * @param b
+		 */
+		void write(Record a, Record b) throws IOException{
+			int label = a.difference(b, difference);
+			writeRow(a.getQueryId(), label, difference);
+			RankingMetrics.increment(RankingMetrics.Counter.PAIRS);
+		}
+
+		protected abstract void writeRow(int queryId, int label, double[] difference) throws IOException;
+	}
+
+
+	/**
+	 * label,f0,f1,... as Record.difference(b)
+	 */
+	static class Csv extends Pairs {
+
+		Csv(WritableByteChannel channel, FeatureProjection projection){
+			super(channel, projection);
+		}
+
+		protected void writeRow(int queryId, int label, double[] difference) throws IOException{
+			putLong(label);
+			for(int k = 0; k < difference.length; k++){
+				putByte(',');
+				putDouble(difference[k]);
+			}
+			putByte('\n');
+		}
+	}
+
+	/**
+	 * dense or sparse ARFF with generated header
+	 * in sparse rows an omitted nominal value means the first declared value, so categorical
+	 * attributes are declared {0,-1,1} there
+	 */
+	static class Arff extends Pairs {
+
+		private final boolean sparse;
+
+		Arff(WritableByteChannel channel, FeatureProjection projection, boolean sparse){
+			super(channel, projection);
+			this.sparse = sparse;
+		}
+
+		protected void writeHeader() throws IOException{
+			putAscii("@relation mslr_pairwise\n\n");
+			putAscii("@attribute label {-1,1}\n");
+			for(int k = 0; k < projection.size(); k++){
+				int i = projection.getFeatureIndex(k);
+				putAscii("@attribute attr" + i + " ");
+				if(!FeatureProjection.isCategorical(i)) putAscii("numeric\n");
+				else putAscii(sparse ? "{0,-1,1}\n" : "{-1,0,1}\n");
+			}
+			putAscii("\n@data\n");
+		}
+
+		protected void writeRow(int queryId, int label, double[] difference) throws IOException{
+			if(sparse){
+				putAscii("{0 ");
+				putLong(label);
+				for(int k = 0; k < difference.length; k++){
+					if(difference[k] == 0) continue;
+					putByte(',');
+					putLong(k + 1);
+					putByte(' ');
+					putNumber(difference[k]);
+				}
+				putByte('}');
+			}
+			else{
+				putLong(label);
+				for(int k = 0; k < difference.length; k++){
+					putByte(',');
+					if(FeatureProjection.isCategorical(projection.getFeatureIndex(k))) putLong((long) difference[k]);
+					else putNumber(difference[k]);
+				}
+			}
+			putByte('\n');
+		}
+	}
+
+	/**
+	 * LibSVM
+	 */
+	static class LibSvm extends Pairs {
+
+		LibSvm(WritableByteChannel channel, FeatureProjection projection){
+			super(channel, projection);
+		}
+
+		protected void writeRow(int queryId, int label, double[] difference) throws IOException{
+			putLong(label);
+			putSparse(difference);
+			putByte('\n');
+		}
+	}
+
+	/**
+	 * SVMrank input: one row per document with its relevance and qid, SVMrank builds the pairs of each
+	 * query itself (pair selection of option 4 does not apply)
+	 */
+	static class SvmRank extends PairwiseWriter {
+
+		SvmRank(WritableByteChannel channel, FeatureProjection projection){
+			super(channel, projection);
+		}
+
+		void writeQuery(List<Record> records, PairSampler sampler) throws IOException{
+			for(Record r : records){
+				putLong(r.getRelevance());
+				putAscii(" qid:");
+				putLong(r.getQueryId());
+				putSparse(r.getFeatures());
+				putByte('\n');
+			}
+		}
+
+		String describe(PairSampler sampler){
+			return "(documents)";
+		}
+	}
+
+	/**
+	 * raw little-endian floats, label first
+	 */
+	static class Binary extends Pairs {
+
+		Binary(WritableByteChannel channel, FeatureProjection projection){
+			super(channel, projection);
+		}
+
+		protected void writeRow(int queryId, int label, double[] difference) throws IOException{
+			putFloatLE(label);
+			for(int k = 0; k < difference.length; k++) putFloatLE((float) difference[k]);
+		}
+	}
+}
@@ -0,0 +1,180 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * For Learning to Rank Machine Learning Project, SJSU 185C/267
+ *
+ * Persistent cache of pairwise model predictions keyed by (qid, document i, document j), i < j, where
+ * document numbers are positions within the query in file order (Record.getDocumentNum).  Only one
+ * orientation is stored, Query mirrors it for j - i (pairwiseRel symmetry).
+ *
+ * Stored in a memory-mapped file as an open addressing hash table:
+ * 		header: magic, fingerprint (long), capacity, count (int)
+ * 		slots:  key (long, 0 = empty), prediction (double)
+ *
+ * The fingerprint covers the model class, the model files and the input file (path, length, last modified).
+ * Opening a cache file whose fingerprint differs clears it, so a changed model or test fold never reads
+ * stale predictions.  The file never grows past the size cap, once 3/4 full new predictions are not added.
+ */
+public class PredictionCache {
+
+	private static final long MAGIC = 0x4d534c5250435631L; // "MSLRPCV1"
+	private static final int HEADER_SIZE = 24;
+	private static final int SLOT_SIZE = 16;
+
+	private final RandomAccessFile file;
+	private final MappedByteBuffer map;
+	private final int capacity; // slots, power of 2
+	private int count;
+	private long hits, misses, rejected;
+
+	/**
+	 *
+	 * @param cacheFilePath cache file, created if missing
+	 * @param fingerprint see fingerprint()
+	 * @param maxBytes size cap of cache file
+	 */
+	PredictionCache(String cacheFilePath, long fingerprint, long maxBytes) throws IOException{
+		int slots = Integer.highestOneBit((int) Math.min(Integer.MAX_VALUE, Math.max(SLOT_SIZE, (maxBytes - HEADER_SIZE)/SLOT_SIZE)));
+		// a mapped buffer is limited to 2GB
+		while((long) slots * SLOT_SIZE + HEADER_SIZE > Integer.MAX_VALUE) slots >>= 1;
+
+		file = new RandomAccessFile(cacheFilePath, "rw");
+		boolean valid = file.length() >= HEADER_SIZE;
+		if(valid){
+			file.seek(0);
+			valid = file.readLong() == MAGIC && file.readLong() == fingerprint && file.readInt() == slots;
+		}
+		if(!valid){
+			// new file, or model/input/size changed: start empty
+			file.setLength(0);
+		}
+		long size = (long) slots * SLOT_SIZE + HEADER_SIZE;
+		file.setLength(size);
+		map = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		capacity = slots;
+		if(valid) count = map.getInt(20);
+		else{
+			map.putLong(0, MAGIC);
+			map.putLong(8, fingerprint);
+			map.putInt(16, capacity);
+			map.putInt(20, 0);
+		}
+	}
+
+	/**
+	 * @param modelName eg. model class name
+	 * @param files model file(s) and input file
+	 * @return fingerprint of model name and each file's path, length and last modified time
+	 */
+	static long fingerprint(String modelName, String... files){
+		CRC32 crc = new CRC32();
+		crc.update(modelName.getBytes());
+		long fingerprint = crc.getValue();
+		for(String path : files){
+			File f = new File(path);
+			crc.reset();
+			crc.update(canonicalPath(f).getBytes());
+			fingerprint = fingerprint*31 + crc.getValue();
+			fingerprint = fingerprint*31 + f.length();
+			fingerprint = fingerprint*31 + f.lastModified();
+		}
+		return fingerprint;
+	}
+
+	/**
+	 *  same path for the same file from any working directory ("..", "." and links resolved)
+	 */
+	private static String canonicalPath(File f){
+		try{
+			return f.getCanonicalPath();
+		}
+		catch(IOException e){
+			return f.getAbsolutePath();
+		}
+	}
+
+	private static long key(int queryId, int i, int j){
+		// j > i >= 0 so key is never 0 (empty)
+		return ((long) queryId << 32) | ((long) i << 16) | j;
+	}
+
+	private int slot(long key){
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h >>> 32) & (capacity - 1);
+	}
+
+	/**
+	 *
+	 * @param queryId
+	 * @param i document number, i < j
+	 * @param j document number, < 65536
+	 * @return cached prediction for i - j, NaN if not cached
+	 */
+	double get(int queryId, int i, int j){
+		if(j > 0xFFFF) return Double.NaN;
+		long key = key(queryId, i, j);
+		for(int s = slot(key); ; s = (s + 1) & (capacity - 1)){
+			int offset = HEADER_SIZE + s * SLOT_SIZE;
+			long stored = map.getLong(offset);
+			if(stored == key){
+				hits++;
+				return map.getDouble(offset + 8);
+			}
+			if(stored == 0){
+				misses++;
+				return Double.NaN;
+			}
+		}
+	}
+
+	/**
+	 * adds prediction for i - j (ignored once cache is 3/4 full)
+	 * @param queryId
+	 * @param i document number, i < j
+	 * @param j document number, < 65536
+	 * @param prediction
+	 */
+	void put(int queryId, int i, int j, double prediction){
+		if(j > 0xFFFF) return;
+		long key = key(queryId, i, j);
+		for(int s = slot(key); ; s = (s + 1) & (capacity - 1)){
+			int offset = HEADER_SIZE + s * SLOT_SIZE;
+			long stored = map.getLong(offset);
+			if(stored == key){
+				map.putDouble(offset + 8, prediction);
+				return;
+			}
+			if(stored == 0){
+				if(count >= capacity / 4 * 3){
+					rejected++;
+					return;
+				}
+				map.putDouble(offset + 8, prediction);
+				map.putLong(offset, key);
+				map.putInt(20, ++count);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * writes mapped pages and closes file
+	 */
+	void close() throws IOException{
+		map.force();
+		file.close();
+	}
+
+	/**
+	 * hit/miss counts
+	 */
+	public String toString(){
+		return "[Prediction cache: " + count + "/" + capacity + " slots used, " + hits + " hits, " + misses + " misses"
+				+ (rejected > 0 ? ", " + rejected + " not cached (full)" : "") + "]";
+	}
+}
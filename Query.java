@@ -6,6 +6,9 @@
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 
 
 public class Query {
@@ -14,6 +17,12 @@ public class Query {
 	private ArrayList<Record> documents;
 	private ArrayList<Integer> relevanceList;
 	private Boolean ranked;
+	private MSLRpairwiseModel scoringModel; // model that produced current rankScores
+	private int scoredCount; // leading documents scored against each other by scoringModel
+	private long predictions; // model predictions made by current ranking
+	private long avoidedPredictions; // pairs skipped by current (adaptive) ranking
+	private long stage1Predictions; // predictions of first stage of current (cascade) ranking
+	private PredictionCache predictionCache;
 	
 	/**
 	 * 
@@ -43,20 +52,39 @@ public class Query {
 		return queryId;
 	}
 	
+	/**
+	 * 
+	 * @return number of Records in Query
+	 */
+	public int getNumRecords(){
+		return documents.size();
+	}
+	
 	/**
 	 * adds Record to Query
 	 * @param toAdd
 	 */
 	public void addRecord(Record toAdd){
 		
-		//adding new record after ranking invalidates ranking
+		//adding new record after ranking invalidates ranking (scores of ranked records are kept, 
+		//so the next ranking with the same model only predicts pairs involving new records)
 		if(ranked) ranked = false;
 		
 		relevanceList.add(toAdd.getRelevance());
+		toAdd.setDocumentNum(documents.size());
 		documents.add(toAdd);
 		
 	}
 	
+	/**
+	 * pairwise predictions are read from cache when present and added to it when not
+	 * (cache must belong to the model used for ranking, see PredictionCache)
+	 * @param cache null for no caching
+	 */
+	public void setPredictionCache(PredictionCache cache){
+		this.predictionCache = cache;
+	}
+	
 	/**
 	 * 
 	 * @param i  index
@@ -71,76 +99,431 @@ public class Query {
 	 * records pairwise classification results (from model) for all Records in Query
 	 * uses these results to order records in proposed best ordering of Records for Query
 	 * 
+	 * if Query was already ranked with this model and Records have been added since, only the
+	 * pairs involving the new Records are predicted (see rankPairwise)
+	 * 
 	 * @param model 
 	 */
 	void peformRanking(MSLRbinaryModel model){
+		rankPairwise(model, null);
+	}
+	
+	/**
+	 * as peformRanking, for models returning confidence that a beats b
+	 * 
+	 * @param model
+	 */
+	void performRankingContinuous(MSLRcontinuousModel model){
+		rankPairwise(null, model);
+	}
+	
+	/**
+	 * as performRankingContinuous, but stops predicting pairs once they can no longer change the ranking.
+	 * Pairs are played round robin (each document plays one comparison per round) and each document's possible
+	 * total score is tracked as [score so far, score so far + comparisons remaining] (confidences are in 0..1).
+	 * A document is settled once its interval is separated from every other document's by more than the rank
+	 * score comparator's tie width, so its position is certain, or (topK > 0) once at least topK documents
+	 * certainly score above it.  A pair is only skipped when both documents are settled.
+	 * 
+	 * The ranking (first topK positions if topK > 0) is the same as performRankingContinuous gives, apart
+	 * from the order of ties.  Settled documents get the midpoint of their interval as rankScore.
+	 * 
+	 * @param model predictions must be in 0..1
+	 * @param topK number of leading positions that must be exact, 0 for the whole ranking
+	 */
+	void performRankingAdaptive(MSLRcontinuousModel model, int topK){
 		
-		int[][] pairwiseRel = new int[this.documents.size()][this.documents.size()];
+		QueryRankingEvent event = new QueryRankingEvent();
+		event.begin();
+		int numDocs = this.documents.size();
+		double[] lower = new double[numDocs];
+		double[] upper = new double[numDocs];
+		Arrays.fill(upper, numDocs - 1);
+		boolean[] settled = new boolean[numDocs];
+		int numSettled = 0;
+		long played = 0;
+		predictions = 0;
+		stage1Predictions = 0;
 		
-		//generate pairwise decisions (row doc - col doc)		
-		for(int i = 0; i < this.documents.size(); i++){
-			
-			for(int j = i + 1; j < this.documents.size(); j++){
-				
-				int result = model.predict(documents.get(i).difference(documents.get(j)));
-				
-				pairwiseRel[i][j] = result;
-				//fill in symmetric entry
-				pairwiseRel[j][i] = -result;
-			}	
-		}
-		//score each doc
-		for(int i = 0; i < this.documents.size(); i++){
-			int score = 0;
-			for(int j = 0; j < this.documents.size(); j++){
-				score += pairwiseRel[i][j];
+		// circle method: slot 0 fixed, the others rotate each round, slot s plays slot m-1-s
+		// (with an odd number of documents slot numDocs is a bye)
+		int m = numDocs + numDocs % 2;
+		for(int round = 0; round < m - 1 && numSettled < numDocs; round++){
+			for(int s = 0; s < m/2; s++){
+				int i = roundRobinSlot(s, round, m);
+				int j = roundRobinSlot(m - 1 - s, round, m);
+				if(i >= numDocs || j >= numDocs || (settled[i] && settled[j])) continue;
+				if(i > j){
+					int tmp = i;
+					i = j;
+					j = tmp;
+				}
+				double result = predictPair(null, model, documents.get(i), documents.get(j), predictionCache);
+				played++;
+				lower[i] += result;
+				upper[i] -= 1 - result;
+				lower[j] += 1 - result;
+				upper[j] -= result;
 			}
-			documents.get(i).setRankScore(score);
+			numSettled = settle(lower, upper, settled, topK);
+		}
+		avoidedPredictions = (long) numDocs*(numDocs - 1)/2 - played;
+		for(int i = 0; i < numDocs; i++){
+			documents.get(i).setRankScore((lower[i] + upper[i])/2);
 		}
 		
-		//shuffle to do away with bias of original document order
-		Collections.shuffle(documents);
-
-		// sort by rank score
-		Collections.sort(documents, documents.get(0).getRankScoreComparator()) ;
+		long startTime = RankingMetrics.start();
+		if(numDocs > 0){
+			//shuffle to do away with bias of original document order
+			Collections.shuffle(documents);
+			Collections.sort(documents, documents.get(0).getRankScoreComparator());
+		}
+		RankingMetrics.stop(RankingMetrics.Stage.SORT, startTime);
+		// scores are incomplete, next ranking starts from scratch
+		scoringModel = null;
+		scoredCount = 0;
 		ranked = true;
+		RankingMetrics.add(RankingMetrics.Counter.PREDICTIONS_AVOIDED, avoidedPredictions);
+		event.avoided = avoidedPredictions;
+		recordRanking(event, model, predictions);
+	}
+	
+	/**
+	 * @return document index at slot in round of an m document round robin
+	 */
+	private static int roundRobinSlot(int slot, int round, int m){
+		return (slot == 0) ? 0 : (slot - 1 + round) % (m - 1) + 1;
+	}
+	
+	/**
+	 * marks documents whose position (or exclusion from the top k) is certain, see performRankingAdaptive
+	 * @param lower lower bound of each document's total score
+	 * @param upper upper bound of each document's total score
+	 * @param settled updated
+	 * @param topK 0 for whole ranking
+	 * @return number of settled documents
+	 */
+	private static int settle(double[] lower, double[] upper, boolean[] settled, int topK){
+		//rank score comparator treats scores within 0.001 as ties
+		final double tie = 0.001;
+		int numDocs = lower.length;
+		Integer[] byLower = new Integer[numDocs];
+		for(int i = 0; i < numDocs; i++) byLower[i] = i;
+		Arrays.sort(byLower, new Comparator<Integer>(){
+			public int compare(Integer a, Integer b){
+				return Double.compare(lower[a], lower[b]);
+			}
+		});
+		double[] sortedLower = new double[numDocs];
+		for(int p = 0; p < numDocs; p++) sortedLower[p] = lower[byLower[p]];
 		
+		int numSettled = 0;
+		double maxUpperBelow = Double.NEGATIVE_INFINITY;
+		for(int p = 0; p < numDocs; p++){
+			int i = byLower[p];
+			if(!settled[i]){
+				// documents with lower bounds below i's must end below it, the next one up must start above it
+				boolean separated = maxUpperBelow < lower[i] - tie && (p == numDocs - 1 || sortedLower[p + 1] > upper[i] + tie);
+				settled[i] = separated || (topK > 0 && countAbove(sortedLower, upper[i] + tie) >= topK);
+			}
+			if(settled[i]) numSettled++;
+			maxUpperBelow = Math.max(maxUpperBelow, upper[i]);
+		}
+		return numSettled;
 	}
 	
-	void performRankingContinuous(MSLRcontinuousModel model){
-		double[][] pairwiseRel = new double[this.documents.size()][this.documents.size()];
+	/**
+	 * @param sorted ascending
+	 * @return number of values > x
+	 */
+	private static int countAbove(double[] sorted, double x){
+		int lo = 0, hi = sorted.length;
+		while(lo < hi){
+			int mid = (lo + hi) >>> 1;
+			if(sorted[mid] > x) hi = mid;
+			else lo = mid + 1;
+		}
+		return sorted.length - lo;
+	}
+	
+	/**
+	 * 
+	 * @return pairs not predicted by the last ranking because they could not change it (performRankingAdaptive)
+	 */
+	public long getAvoidedPredictions(){
+		return avoidedPredictions;
+	}
+	
+	/**
+	 * Each Record's rankScore is its accumulated pairwise score against every other Record in the Query
+	 * (binary: +1/-1 per pair, continuous: p / 1-p per pair).  The first scoredCount documents already hold
+	 * their scores against each other from the last ranking with the same model, so only pairs involving
+	 * the documents added since are predicted: adding k documents to n costs ~k*n predictions instead of
+	 * (n+k)^2/2.  The already ranked head is re-sorted (nearly sorted, so ~linear) and each new Record is
+	 * inserted by binary search.  Ranking with a different model starts from scratch.
+	 * 
+	 * exactly one of binaryModel/continuousModel is non null
+	 */
+	private void rankPairwise(MSLRbinaryModel binaryModel, MSLRcontinuousModel continuousModel){
+		
+		MSLRpairwiseModel model = (binaryModel != null) ? binaryModel : continuousModel;
+		if(model != scoringModel){
+			scoringModel = model;
+			scoredCount = 0;
+		}
+		
+		QueryRankingEvent event = new QueryRankingEvent();
+		event.begin();
+		int numDocs = this.documents.size();
+		double[] scores = new double[numDocs];
+		for(int i = 0; i < scoredCount; i++){
+			scores[i] = documents.get(i).getRankScore();
+		}
 		
-		//generate pairwise decisions (row doc - col doc)		
-		for(int i = 0; i < this.documents.size(); i++){
+		//generate pairwise decisions (row doc - col doc) for pairs not yet scored
+		predictions = 0;
+		stage1Predictions = 0;
+		avoidedPredictions = 0;
+		if(continuousModel instanceof MSLRvectorModel && predictionCache == null && scoredCount < numDocs){
+			scoreBatches((MSLRvectorModel) continuousModel, scores);
+		}
+		else for(int j = scoredCount; j < numDocs; j++){
 			
-			for(int j = i + 1; j < this.documents.size(); j++){
+			for(int i = 0; i < j; i++){
 				
-				double result = model.predict(documents.get(i).difference(documents.get(j)));
+				double result = predictPair(binaryModel, continuousModel, documents.get(i), documents.get(j), predictionCache);
 				
-				pairwiseRel[i][j] = result;
-				//fill in symmetric entry
-				pairwiseRel[j][i] = 1 - result;
+				scores[i] += result;
+				//symmetric entry
+				scores[j] += (binaryModel != null) ? -result : 1 - result;
 			}	
 		}
-		//score each doc
-		for(int i = 0; i < this.documents.size(); i++){
-			double score = 0;
-			for(int j = 0; j < this.documents.size(); j++){
-				score += pairwiseRel[i][j];
-			}
-			documents.get(i).setRankScore(score);
+		for(int i = 0; i < numDocs; i++){
+			documents.get(i).setRankScore(scores[i]);
 		}
 		
-		//shuffle to do away with bias of original document order
-		Collections.shuffle(documents);
-
-		// sort by rank score
-		Collections.sort(documents, documents.get(0).getRankScoreComparator()) ;
+		long startTime = RankingMetrics.start();
+		if(numDocs > 0){
+			Comparator<Record> byRankScore = documents.get(0).getRankScoreComparator();
+			if(scoredCount == 0){
+				//shuffle to do away with bias of original document order
+				Collections.shuffle(documents);
+				// sort by rank score
+				Collections.sort(documents, byRankScore);
+			}
+			else if(scoredCount < numDocs){
+				List<Record> added = new ArrayList<Record>(documents.subList(scoredCount, numDocs));
+				documents.subList(scoredCount, numDocs).clear();
+				Collections.sort(documents, byRankScore);
+				for(Record r : added){
+					int pos = Collections.binarySearch(documents, r, byRankScore);
+					documents.add(pos < 0 ? -pos - 1 : pos, r);
+				}
+			}
+		}
+		RankingMetrics.stop(RankingMetrics.Stage.SORT, startTime);
+		scoredCount = numDocs;
 		ranked = true;
+		recordRanking(event, model, predictions);
+		
+	}
+	
+	/**
+	 * prediction for a - b, from prediction cache (if not null) when present, otherwise from model
+	 * cached predictions are stored for (lower document number - higher document number) and mirrored
+	 * 
+	 * exactly one of binaryModel/continuousModel is non null
+	 * @param cache cache of the model, or null
+	 * @return prediction a beats b (binary: 1/-1, continuous: confidence)
+	 */
+	private double predictPair(MSLRbinaryModel binaryModel, MSLRcontinuousModel continuousModel, Record a, Record b,
+			PredictionCache cache){
+		boolean swapped = cache != null && a.getDocumentNum() > b.getDocumentNum();
+		if(swapped){
+			Record tmp = a;
+			a = b;
+			b = tmp;
+		}
+		double result = Double.NaN;
+		if(cache != null) result = cache.get(queryId, a.getDocumentNum(), b.getDocumentNum());
+		if(Double.isNaN(result)){
+			String difference = a.difference(b);
+			long startTime = RankingMetrics.start();
+			if(binaryModel != null) result = binaryModel.predict(difference);
+			else result = continuousModel.predict(difference);
+			RankingMetrics.stop(RankingMetrics.Stage.PREDICT, startTime);
+			predictions++;
+			if(cache != null) cache.put(queryId, a.getDocumentNum(), b.getDocumentNum(), result);
+		}
+		if(swapped) result = (binaryModel != null) ? -result : 1 - result;
+		return result;
+	}
+	
+	
+	/**
+	 * continuous scoring without difference Strings: documents are copied into one feature block and
+	 * for each unscored document j the differences (doc i - doc j, i < j) are computed and predicted as a batch
+	 * @param model
+	 * @param scores accumulated scores, updated
+	 */
+	private void scoreBatches(MSLRvectorModel model, double[] scores){
+		int numDocs = documents.size();
+		FeatureProjection projection = documents.get(0).getProjection();
+		int numFeatures = projection.size();
+		double[] block = featureBlock();
+		double[] differences = new double[numDocs * numFeatures];
+		double[] results = new double[numDocs];
+		for(int j = Math.max(scoredCount, 1); j < numDocs; j++){
+			long startTime = RankingMetrics.start();
+			FeatureKernels.INSTANCE.differences(block, numFeatures, 0, j, j, differences, projection.getCategoricalPositions());
+			RankingMetrics.stop(RankingMetrics.Stage.DIFFERENCE, startTime);
+			startTime = RankingMetrics.start();
+			model.predict(differences, j, numFeatures, results);
+			RankingMetrics.stop(RankingMetrics.Stage.PREDICT, startTime);
+			for(int i = 0; i < j; i++){
+				scores[i] += results[i];
+				//symmetric entry
+				scores[j] += 1 - results[i];
+			}
+			predictions += j;
+		}
+	}
+	
+	/**
+	 * 
+	 * @return projected features of all documents (in current order), row major
+	 */
+	private double[] featureBlock(){
+		int numFeatures = documents.get(0).getProjection().size();
+		double[] block = new double[documents.size() * numFeatures];
+		for(int i = 0; i < documents.size(); i++){
+			System.arraycopy(documents.get(i).getFeatures(), 0, block, i * numFeatures, numFeatures);
+		}
+		return block;
+	}
+	
+	/**
+	 * Two stage ranking: stage1Model orders all documents, stage2Model re-ranks the first m of that order
+	 * pairwise and the remaining documents keep their stage 1 order.  A pointwise stage 1 makes one prediction
+	 * per document, so n documents cost n + m(m-1)/2 predictions instead of n(n-1)/2 (a pairwise stage 1
+	 * predicts every pair, for a model much cheaper than stage 2).  The prediction cache (if set) belongs to
+	 * stage2Model and is only used for stage 2.  rankScores are stage 2 scores for the head, stage 1 for the tail.
+	 * 
+	 * @param stage1Model MSLRpointwiseModel or MSLRpairwiseModel
+	 * @param m number of documents re-ranked by stage 2 (0 for stage 1 order only)
+	 * @param stage2Model
+	 */
+	void performRankingCascade(MSLRmodel stage1Model, int m, MSLRpairwiseModel stage2Model){
 		
+		QueryRankingEvent event = new QueryRankingEvent();
+		event.begin();
+		int numDocs = this.documents.size();
+		predictions = 0;
+		stage1Predictions = 0;
+		avoidedPredictions = 0;
 		
+		double[] scores;
+		if(stage1Model instanceof MSLRpointwiseModel) scores = pointwiseScores((MSLRpointwiseModel) stage1Model);
+		else scores = pairwiseScores((MSLRpairwiseModel) stage1Model, numDocs, null);
+		stage1Predictions = predictions;
+		for(int i = 0; i < numDocs; i++){
+			documents.get(i).setRankScore(scores[i]);
+		}
+		long startTime = RankingMetrics.start();
+		if(numDocs > 0){
+			//shuffle to do away with bias of original document order
+			Collections.shuffle(documents);
+			Collections.sort(documents, documents.get(0).getRankScoreComparator());
+		}
+		RankingMetrics.stop(RankingMetrics.Stage.SORT, startTime);
+		
+		int head = Math.min(m, numDocs);
+		scores = pairwiseScores(stage2Model, head, predictionCache);
+		for(int i = 0; i < head; i++){
+			documents.get(i).setRankScore(scores[i]);
+		}
+		startTime = RankingMetrics.start();
+		if(head > 0){
+			Collections.shuffle(documents.subList(0, head));
+			Collections.sort(documents.subList(0, head), documents.get(0).getRankScoreComparator());
+		}
+		RankingMetrics.stop(RankingMetrics.Stage.SORT, startTime);
+		// scores are not all from one model, next ranking starts from scratch
+		scoringModel = null;
+		scoredCount = 0;
+		ranked = true;
+		recordRanking(event, stage2Model, predictions);
 	}
 	
+	/**
+	 * @return score of each document (current order) from pointwise model
+	 */
+	private double[] pointwiseScores(MSLRpointwiseModel model){
+		int numDocs = documents.size();
+		double[] scores = new double[numDocs];
+		if(numDocs == 0) return scores;
+		double[] block = featureBlock();
+		long startTime = RankingMetrics.start();
+		model.score(block, numDocs, documents.get(0).getProjection().size(), scores);
+		RankingMetrics.stop(RankingMetrics.Stage.PREDICT, startTime);
+		predictions += numDocs;
+		return scores;
+	}
+	
+	/**
+	 * @param model
+	 * @param numDocs number of leading documents (current order) scored against each other
+	 * @param cache cache of model, or null
+	 * @return accumulated pairwise score of each of the leading documents (as rankPairwise)
+	 */
+	private double[] pairwiseScores(MSLRpairwiseModel model, int numDocs, PredictionCache cache){
+		MSLRbinaryModel binaryModel = (model instanceof MSLRbinaryModel) ? (MSLRbinaryModel) model : null;
+		MSLRcontinuousModel continuousModel = (binaryModel == null) ? (MSLRcontinuousModel) model : null;
+		double[] scores = new double[numDocs];
+		for(int j = 1; j < numDocs; j++){
+			for(int i = 0; i < j; i++){
+				double result = predictPair(binaryModel, continuousModel, documents.get(i), documents.get(j), cache);
+				scores[i] += result;
+				//symmetric entry
+				scores[j] += (binaryModel != null) ? -result : 1 - result;
+			}
+		}
+		return scores;
+	}
+	
+	/**
+	 * 
+	 * @return model predictions made by the last ranking (both stages of a cascade, cache hits not counted)
+	 */
+	public long getPredictions(){
+		return predictions;
+	}
+	
+	/**
+	 * 
+	 * @return predictions made by the first stage of the last ranking (performRankingCascade, otherwise 0)
+	 */
+	public long getStage1Predictions(){
+		return stage1Predictions;
+	}
+	
+	/**
+	 * updates metrics registry and commits JFR event for a completed ranking
+	 * @param event begun before pairwise predictions were made
+	 * @param model model used for ranking
+	 * @param predictions number of pairwise predictions made
+	 */
+	private void recordRanking(QueryRankingEvent event, MSLRmodel model, long predictions){
+		RankingMetrics.add(RankingMetrics.Counter.PREDICTIONS, predictions);
+		event.end();
+		if(event.shouldCommit()){
+			event.queryId = queryId;
+			event.documents = documents.size();
+			event.predictions = predictions;
+			event.model = model.getClass().getSimpleName();
+			event.commit();
+		}
+	}
 	
 	/**
 	 * Discounted Cumulative Gain 
@@ -152,6 +535,15 @@ public class Query {
 	 */
 	
 	double getIdealDCG(){
+		return getIdealDCG(relevanceList.size());
+	}
+	
+	/**
+	 * as getIdealDCG, for the first k positions only (DCG@k)
+	 * @param k
+	 * @return ideal DCG@k
+	 */
+	double getIdealDCG(int k){
 		double idealDCG;
 		Collections.sort(this.relevanceList);
 		Collections.sort(this.relevanceList, Collections.reverseOrder());
@@ -162,7 +554,7 @@ public class Query {
 		} 
 		System.out.println(); */
 		idealDCG = relevanceList.get(0);
-		for(int i = 1; i < relevanceList.size(); i++){
+		for(int i = 1; i < Math.min(k, relevanceList.size()); i++){
 			idealDCG += relevanceList.get(i)/Math.log(i+1); 
 		}
 		return idealDCG;
@@ -183,11 +575,20 @@ public class Query {
 	 */
 	
 	double getResultDCG(){
+		return getResultDCG(documents.size());
+	}
+	
+	/**
+	 * as getResultDCG, for the first k positions only (DCG@k)
+	 * @param k
+	 * @return DCG@k of ranking
+	 */
+	double getResultDCG(int k){
 		double dcg;
 		if(this.isRanked()){
 			//System.out.println("Actual order:");
 			dcg = this.documents.get(0).getRelevance();
-			for(int i = 1 ; i < this.documents.size(); i++){
+			for(int i = 1 ; i < Math.min(k, this.documents.size()); i++){
 				dcg += this.documents.get(i).getRelevance()/Math.log(i+1);
 				// for debugging
 				//System.out.print(this.documents.get(i).getRelevance() +"(" + this.documents.get(i).getRankScore() +  ") , ");
@@ -202,6 +603,15 @@ public class Query {
 		
 	}
 	
+	/**
+	 * 
+	 * @param k
+	 * @return NDCG@k of ranking (NaN if query has no relevant documents)
+	 */
+	double getNDCG(int k){
+		return getResultDCG(k)/getIdealDCG(k);
+	}
+	
 	/* 
 	 * error measure discussed with dr. tran
 	 *  total error = 0
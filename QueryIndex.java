@@ -0,0 +1,332 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * For Learning to Rank Machine Learning Project, SJSU 185C/267
+ *
+ * Side-car index (<csv>.qidx) of the query groups in an MSLR csv file (with qid) so queries can be
+ * loaded by qid, sampled, or the file split into shards without scanning it
+ *
+ * Index file format:
+ * 		#qidx,<csv length in bytes>,<csv last modified>
+ * 		qid,byte offset,byte length,document count,#rel 0,#rel 1,#rel 2,#rel 3,#rel 4   // one line per query
+ *
+ * Build with Data_Prep option 6.  An index whose csv length/modification time no longer matches is rejected.
+ * Offsets are into the file as stored, so the csv must be uncompressed (see CompressedIO).
+ */
+public class QueryIndex {
+
+	static final String SUFFIX = ".qidx";
+
+	private final String csvFilePath;
+	private final ArrayList<Entry> entries;
+	private final HashMap<Integer, Entry> byQueryId;
+
+	private QueryIndex(String csvFilePath, ArrayList<Entry> entries){
+		this.csvFilePath = csvFilePath;
+		this.entries = entries;
+		byQueryId = new HashMap<Integer, Entry>();
+		for(Entry e : entries){
+			if(byQueryId.put(e.queryId, e) != null)
+				System.out.println("Query " + e.queryId + " is not contiguous in " + csvFilePath + ", only last group indexed by qid");
+		}
+	}
+
+	/**
+	 * scans csv once, writes <csv>.qidx
+	 * @param csvFilePath mslr csv (with qid)
+	 * @return index of csv
+	 */
+	static QueryIndex build(String csvFilePath) throws Exception{
+		if(CompressedIO.isCompressed(csvFilePath))
+			throw new IllegalArgumentException("Query index needs an uncompressed csv, " + csvFilePath + " is compressed");
+		ArrayList<Entry> entries = new ArrayList<Entry>();
+		BufferedInputStream in = new BufferedInputStream(new FileInputStream(csvFilePath), 1 << 16);
+		long offset = 0, lineStart = 0;
+		int field = 0, relevance = 0, queryId = 0;
+		boolean content = false; // line has more than \r
+		Entry current = null;
+		int b = in.read();
+		while(b != -1){
+			if(b == '\n'){
+				//blank lines (eg. trailing newline) are not documents
+				if(content) current = addLine(entries, current, queryId, relevance, lineStart, offset + 1);
+				field = 0;
+				relevance = 0;
+				queryId = 0;
+				content = false;
+				lineStart = offset + 1;
+			}
+			else if(b != '\r') content = true;
+			if(b == ',') field++;
+			else if(b >= '0' && b <= '9'){
+				if(field == 0) relevance = relevance*10 + (b - '0');
+				else if(field == 1) queryId = queryId*10 + (b - '0');
+			}
+			offset++;
+			b = in.read();
+		}
+		//last line without trailing newline
+		if(content) addLine(entries, current, queryId, relevance, lineStart, offset);
+		in.close();
+		RankingMetrics.add(RankingMetrics.Counter.BYTES_READ, offset);
+
+		File csv = new File(csvFilePath);
+		PrintWriter out = new PrintWriter(csvFilePath + SUFFIX);
+		out.println("#qidx," + csv.length() + "," + csv.lastModified());
+		for(Entry e : entries) out.println(e);
+		out.close();
+		return new QueryIndex(csvFilePath, entries);
+	}
+
+	/**
+	 * extends current entry with line, or starts new entry if line belongs to a different query
+	 * @return entry line was added to
+	 */
+	private static Entry addLine(ArrayList<Entry> entries, Entry current, int queryId, int relevance, long lineStart, long lineEnd){
+		if(current == null || current.queryId != queryId){
+			current = new Entry(queryId, lineStart);
+			entries.add(current);
+		}
+		current.length = lineEnd - current.offset;
+		current.numDocuments++;
+		if(relevance >= 0 && relevance < current.relevanceCounts.length) current.relevanceCounts[relevance]++;
+		return current;
+	}
+
+	/**
+	 *
+	 * @param csvFilePath mslr csv with index built by build()
+	 * @return index read from <csv>.qidx
+	 */
+	static QueryIndex load(String csvFilePath) throws Exception{
+		BufferedReader in = new BufferedReader(new FileReader(csvFilePath + SUFFIX));
+		String[] header = in.readLine().split(",");
+		File csv = new File(csvFilePath);
+		if(Long.parseLong(header[1]) != csv.length() || Long.parseLong(header[2]) != csv.lastModified()){
+			in.close();
+			throw new IllegalStateException("Index " + csvFilePath + SUFFIX + " is stale, rebuild with Data_Prep option 6");
+		}
+		ArrayList<Entry> entries = new ArrayList<Entry>();
+		String line = in.readLine();
+		while(line != null){
+			entries.add(Entry.parse(line));
+			line = in.readLine();
+		}
+		in.close();
+		return new QueryIndex(csvFilePath, entries);
+	}
+
+	/**
+	 *
+	 * @param csvFilePath
+	 * @return existing index if valid, otherwise newly built index
+	 */
+	static QueryIndex open(String csvFilePath) throws Exception{
+		if(new File(csvFilePath + SUFFIX).exists()){
+			try{
+				return load(csvFilePath);
+			}
+			catch(IllegalStateException e){
+				System.out.println(e.getMessage() + ", rebuilding");
+			}
+		}
+		return build(csvFilePath);
+	}
+
+	/**
+	 *
+	 * @return index entries in file order
+	 */
+	List<Entry> getEntries(){
+		return Collections.unmodifiableList(entries);
+	}
+
+	/**
+	 *
+	 * @return csv file indexed
+	 */
+	String getCsvFilePath(){
+		return csvFilePath;
+	}
+
+	/**
+	 *
+	 * @param queryId
+	 * @return entry for query, null if not in file
+	 */
+	Entry getEntry(int queryId){
+		return byQueryId.get(queryId);
+	}
+
+	/**
+	 * reads only the bytes of one query group
+	 * @param queryId
+	 * @param projection features to parse
+	 * @return Query with all documents of queryId, null if not in file
+	 */
+	Query loadQuery(int queryId, FeatureProjection projection) throws Exception{
+		Entry e = byQueryId.get(queryId);
+		return (e == null) ? null : loadQuery(e, projection);
+	}
+
+	/**
+	 * @param e entry of this index
+	 * @param projection features to parse
+	 * @return Query with all documents of entry
+	 */
+	Query loadQuery(Entry e, FeatureProjection projection) throws Exception{
+		RandomAccessFile file = new RandomAccessFile(csvFilePath, "r");
+		byte[] bytes = new byte[(int) e.length];
+		try{
+			file.seek(e.offset);
+			file.readFully(bytes);
+		}
+		finally{
+			file.close();
+		}
+		RankingMetrics.add(RankingMetrics.Counter.BYTES_READ, bytes.length);
+		Query query = new Query(e.queryId);
+		int start = 0;
+		for(int i = 0; i <= bytes.length; i++){
+			if(i == bytes.length || bytes[i] == '\n'){
+				int end = (i > start && bytes[i - 1] == '\r') ? i - 1 : i;
+				if(end > start) query.addRecord(new Record(new String(bytes, start, end - start, "US-ASCII"), projection));
+				start = i + 1;
+			}
+		}
+		return query;
+	}
+
+	/**
+	 * random subset of queries, loaded one at a time as iterated (in file order to keep reads sequential)
+	 * @param numQueries size of subset (all queries if larger than number in file)
+	 * @param seed
+	 * @param projection features to parse
+	 * @return
+	 */
+	Iterable<Query> sampleQueries(int numQueries, long seed, final FeatureProjection projection){
+		ArrayList<Entry> shuffled = new ArrayList<Entry>(entries);
+		Collections.shuffle(shuffled, new Random(seed));
+		final List<Entry> sample = shuffled.subList(0, Math.min(numQueries, shuffled.size()));
+		Collections.sort(sample, new Comparator<Entry>(){
+			public int compare(Entry a, Entry b){
+				return Long.compare(a.offset, b.offset);
+			}
+		});
+		return new Iterable<Query>(){
+			public Iterator<Query> iterator(){
+				final Iterator<Entry> it = sample.iterator();
+				return new Iterator<Query>(){
+					public boolean hasNext(){
+						return it.hasNext();
+					}
+					public Query next(){
+						try{
+							return loadQuery(it.next(), projection);
+						}
+						catch(Exception e){
+							throw new RuntimeException(e);
+						}
+					}
+					public void remove(){
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * splits file into contiguous shards of whole queries with about equal document counts
+	 * @param numShards at least 1
+	 * @return shards in file order (fewer than numShards if file has fewer queries)
+	 */
+	List<Shard> shards(int numShards){
+		if(numShards <= 0) throw new IllegalArgumentException("Number of shards must be at least 1, was " + numShards);
+		long totalDocs = 0;
+		for(Entry e : entries) totalDocs += e.numDocuments;
+		ArrayList<Shard> shards = new ArrayList<Shard>();
+		int first = 0;
+		long docs = 0;
+		for(int i = 0; i < entries.size(); i++){
+			docs += entries.get(i).numDocuments;
+			if(docs >= totalDocs*(shards.size() + 1)/numShards || i == entries.size() - 1){
+				shards.add(new Shard(shards.size(), entries.subList(first, i + 1)));
+				first = i + 1;
+			}
+		}
+		return shards;
+	}
+
+
+	/**
+	 * one query group of the csv
+	 */
+	static class Entry {
+		final int queryId;
+		final long offset;
+		long length;
+		int numDocuments;
+		final int[] relevanceCounts = new int[5];
+
+		Entry(int queryId, long offset){
+			this.queryId = queryId;
+			this.offset = offset;
+		}
+
+		static Entry parse(String line){
+			String[] fields = line.split(",");
+			Entry e = new Entry(Integer.parseInt(fields[0]), Long.parseLong(fields[1]));
+			e.length = Long.parseLong(fields[2]);
+			e.numDocuments = Integer.parseInt(fields[3]);
+			for(int r = 0; r < e.relevanceCounts.length; r++) e.relevanceCounts[r] = Integer.parseInt(fields[4 + r]);
+			return e;
+		}
+
+		public String toString(){
+			String line = queryId + "," + offset + "," + length + "," + numDocuments;
+			for(int count : relevanceCounts) line += "," + count;
+			return line;
+		}
+	}
+
+	/**
+	 * contiguous run of query groups, bytes [startOffset, endOffset) of the csv
+	 */
+	static class Shard {
+		final int shardNum;
+		final List<Entry> entries;
+		final long startOffset;
+		final long endOffset;
+		final long numDocuments;
+
+		Shard(int shardNum, List<Entry> entries){
+			this.shardNum = shardNum;
+			this.entries = entries;
+			startOffset = entries.get(0).offset;
+			Entry last = entries.get(entries.size() - 1);
+			endOffset = last.offset + last.length;
+			long docs = 0;
+			for(Entry e : entries) docs += e.numDocuments;
+			numDocuments = docs;
+		}
+
+		public String toString(){
+			return "[Shard " + shardNum + ": " + entries.size() + " queries, " + numDocuments + " documents, bytes "
+					+ startOffset + "-" + endOffset + "]";
+		}
+	}
+}
@@ -0,0 +1,32 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event committed once for every Query ranked (see Query.peformRanking/performRankingContinuous)
+ *
+ * record with: java -XX:StartFlightRecording=filename=rank.jfr TestRanking <input>
+ */
+@Name("mslr.QueryRanking")
+@Label("Query Ranking")
+@Category("MSLR")
+@Description("Pairwise ranking of the documents in one query")
+class QueryRankingEvent extends Event {
+
+	@Label("Query Id")
+	int queryId;
+
+	@Label("Documents")
+	int documents;
+
+	@Label("Predictions")
+	long predictions;
+
+	@Label("Predictions Avoided")
+	long avoided;
+
+	@Label("Model")
+	String model;
+}
@@ -0,0 +1,255 @@
+import java.io.BufferedReader;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * For Learning to Rank Machine Learning Project, SJSU 185C/267
+ *
+ * Benchmarks for Query ranking, run with: RankingBenchmark <opt> <MSLR.csv input> <n>(option dependent)
+ *
+ * 1: incremental re-ranking - documents of each query are added <n> at a time and the query is re-ranked
+ *    after every addition, once incrementally (same Query) and once from scratch (new Query each time).
+ *    Reports predictions made and time for both and checks the final rankings match.
+ *
+ * 2: feature kernels - pair differences, dot products and per feature min/max/sum over the feature block
+ *    of each query, scalar loops vs FeatureKernels.INSTANCE (Vector API when run with
+ *    --add-modules jdk.incubator.vector), <n> timed iterations after as many warmup iterations
+ *
+ * 3: adaptive ranking - each query ranked with the full round of pairs and with Query.performRankingAdaptive
+ *    for the top <n> positions (0 for the whole ranking).  Reports predictions made/avoided and time for both
+ *    and checks the (top <n> of the) rankings match.
+ *
+ * Uses a deterministic continuous model so rankings can be compared.
+ */
+public class RankingBenchmark {
+
+	private final static String USAGE = "Usage: <opt> <input filepath> <n>\n" +
+										"Options:\n" +
+										"1: Incremental re-ranking ... <n> documents added per step\n" +
+										"2: Feature kernels scalar vs vector ... <n> iterations\n" +
+										"3: Adaptive vs full ranking ... <n> top positions that must be exact (0 for all)\n";
+
+	public static void main(String[] args) {
+
+		if(args.length != 3){
+			System.out.print(USAGE);
+			return;
+		}
+		try{
+			ArrayList<ArrayList<Record>> queries = readQueries(args[1]);
+			switch(Integer.parseInt(args[0])){
+			case 1:
+				incrementalRanking(queries, Integer.parseInt(args[2]));
+				break;
+			case 2:
+				featureKernels(queries, Integer.parseInt(args[2]));
+				break;
+			case 3:
+				adaptiveRanking(queries, Integer.parseInt(args[2]));
+				break;
+			default:
+				System.out.print(USAGE);
+			}
+		}
+		catch(Exception e){
+			System.out.println(e.getMessage());
+		}
+	}
+
+	/**
+	 *
+	 * @param inputFilePath MSLR csv
+	 * @return records grouped by query (file order)
+	 */
+	static ArrayList<ArrayList<Record>> readQueries(String inputFilePath) throws Exception{
+		BufferedReader in = CompressedIO.openReader(inputFilePath);
+		ArrayList<ArrayList<Record>> queries = new ArrayList<ArrayList<Record>>();
+		ArrayList<Record> records = null;
+		int prevQID = -1;
+		String line = in.readLine();
+		while(line != null){
+			Record r = new Record(line);
+			if(r.getQueryId() != prevQID){
+				records = new ArrayList<Record>();
+				queries.add(records);
+				prevQID = r.getQueryId();
+			}
+			records.add(r);
+			line = in.readLine();
+		}
+		in.close();
+		return queries;
+	}
+
+	/**
+	 * @param queries records grouped by query
+	 * @param step documents added between rankings
+	 */
+	private static void incrementalRanking(ArrayList<ArrayList<Record>> queries, int step){
+		MSLRcontinuousModel model = new LinearContinuous();
+		long incrementalPredictions = 0, scratchPredictions = 0;
+		long incrementalNanos = 0, scratchNanos = 0;
+		int mismatches = 0;
+
+		for(ArrayList<Record> records : queries){
+			Query incremental = new Query(records.get(0).getQueryId());
+			long before = RankingMetrics.get(RankingMetrics.Counter.PREDICTIONS);
+			long startTime = System.nanoTime();
+			for(int added = 0; added < records.size(); ){
+				int stop = Math.min(records.size(), added + step);
+				for(; added < stop; added++) incremental.addRecord(records.get(added));
+				incremental.performRankingContinuous(model);
+			}
+			incrementalNanos += System.nanoTime() - startTime;
+			incrementalPredictions += RankingMetrics.get(RankingMetrics.Counter.PREDICTIONS) - before;
+			double[] incrementalScores = rankScores(incremental);
+
+			Query scratch = null;
+			before = RankingMetrics.get(RankingMetrics.Counter.PREDICTIONS);
+			startTime = System.nanoTime();
+			for(int added = step; added < records.size() + step; added += step){
+				scratch = new Query(records.get(0).getQueryId());
+				for(int i = 0; i < Math.min(added, records.size()); i++) scratch.addRecord(records.get(i));
+				scratch.performRankingContinuous(model);
+			}
+			scratchNanos += System.nanoTime() - startTime;
+			scratchPredictions += RankingMetrics.get(RankingMetrics.Counter.PREDICTIONS) - before;
+
+			double[] scratchScores = rankScores(scratch);
+			for(int i = 0; i < scratchScores.length; i++){
+				//rank score comparator treats scores within 0.001 as ties (order of ties is random)
+				if(Math.abs(scratchScores[i] - incrementalScores[i]) >= 0.001){
+					mismatches++;
+					break;
+				}
+			}
+		}
+		System.out.println("Queries: " + queries.size() + ", documents added per step: " + step);
+		System.out.println("Incremental: predictions " + incrementalPredictions + ", time(ms) " + incrementalNanos/1000000);
+		System.out.println("From scratch: predictions " + scratchPredictions + ", time(ms) " + scratchNanos/1000000);
+		System.out.println("Queries with differing ranking: " + mismatches);
+	}
+
+	/**
+	 * @param queries records grouped by query
+	 * @param iterations timed passes over all queries (after as many warmup passes)
+	 */
+	private static void featureKernels(ArrayList<ArrayList<Record>> queries, int iterations){
+		FeatureKernels scalar = new FeatureKernels.Scalar();
+		FeatureKernels vector = FeatureKernels.INSTANCE;
+		FeatureProjection projection = queries.get(0).get(0).getProjection();
+		int numFeatures = projection.size();
+		double[][] blocks = new double[queries.size()][];
+		int maxDocs = 0;
+		for(int q = 0; q < queries.size(); q++){
+			ArrayList<Record> records = queries.get(q);
+			blocks[q] = new double[records.size() * numFeatures];
+			for(int i = 0; i < records.size(); i++)
+				System.arraycopy(records.get(i).getFeatures(), 0, blocks[q], i * numFeatures, numFeatures);
+			maxDocs = Math.max(maxDocs, records.size());
+		}
+		double[] weights = new double[numFeatures];
+		for(int k = 0; k < numFeatures; k++) weights[k] = (k % 7 - 3)/100.0;
+
+		System.out.println("Kernels: " + vector + " vs " + scalar + ", " + queries.size() + " queries, " + iterations + " iterations");
+		for(FeatureKernels kernels : new FeatureKernels[]{scalar, vector}){
+			double[] out = new double[maxDocs * numFeatures];
+			double[] dots = new double[maxDocs];
+			double[] min = new double[numFeatures], max = new double[numFeatures], sum = new double[numFeatures];
+			long[] nanos = new long[3];
+			double check = 0;
+			for(int it = 0; it < 2 * iterations; it++){
+				boolean timed = it >= iterations;
+				for(int q = 0; q < blocks.length; q++){
+					int numDocs = blocks[q].length / numFeatures;
+					long startTime = System.nanoTime();
+					for(int j = 1; j < numDocs; j++)
+						kernels.differences(blocks[q], numFeatures, 0, j, j, out, projection.getCategoricalPositions());
+					long t1 = System.nanoTime();
+					kernels.dot(blocks[q], numFeatures, numDocs, weights, dots);
+					long t2 = System.nanoTime();
+					kernels.columnStats(blocks[q], numFeatures, numDocs, min, max, sum);
+					long t3 = System.nanoTime();
+					if(timed){
+						nanos[0] += t1 - startTime;
+						nanos[1] += t2 - t1;
+						nanos[2] += t3 - t2;
+						check += dots[0] + sum[0] + out[0];
+					}
+				}
+			}
+			System.out.println(kernels + ": differences(ms) " + nanos[0]/1000000 + ", dot(ms) " + nanos[1]/1000000
+					+ ", columnStats(ms) " + nanos[2]/1000000 + " (checksum " + check + ")");
+		}
+	}
+
+	/**
+	 * @param queries records grouped by query
+	 * @param topK leading positions compared, 0 for all
+	 */
+	private static void adaptiveRanking(ArrayList<ArrayList<Record>> queries, int topK){
+		MSLRcontinuousModel model = new LinearContinuous();
+		long fullPredictions = 0, adaptivePredictions = 0, avoided = 0;
+		long fullNanos = 0, adaptiveNanos = 0;
+		int mismatches = 0;
+
+		for(ArrayList<Record> records : queries){
+			Query full = new Query(records.get(0).getQueryId());
+			for(Record r : records) full.addRecord(r);
+			long before = RankingMetrics.get(RankingMetrics.Counter.PREDICTIONS);
+			long startTime = System.nanoTime();
+			full.performRankingContinuous(model);
+			fullNanos += System.nanoTime() - startTime;
+			fullPredictions += RankingMetrics.get(RankingMetrics.Counter.PREDICTIONS) - before;
+			double[] fullScores = rankScores(full);
+			// full score of each record, rank scores are overwritten by the adaptive ranking
+			IdentityHashMap<Record, Double> fullScore = new IdentityHashMap<Record, Double>();
+			for(int i = 0; i < full.getNumRecords(); i++) fullScore.put(full.getRecordAt(i), fullScores[i]);
+
+			Query adaptive = new Query(records.get(0).getQueryId());
+			for(Record r : records) adaptive.addRecord(r);
+			before = RankingMetrics.get(RankingMetrics.Counter.PREDICTIONS);
+			startTime = System.nanoTime();
+			adaptive.performRankingAdaptive(model, topK);
+			adaptiveNanos += System.nanoTime() - startTime;
+			adaptivePredictions += RankingMetrics.get(RankingMetrics.Counter.PREDICTIONS) - before;
+			avoided += adaptive.getAvoidedPredictions();
+
+			int compared = (topK > 0) ? Math.min(topK, fullScores.length) : fullScores.length;
+			for(int i = 0; i < compared; i++){
+				//rank score comparator treats scores within 0.001 as ties (order of ties is random)
+				if(Math.abs(fullScore.get(adaptive.getRecordAt(i)) - fullScores[i]) >= 0.001){
+					mismatches++;
+					break;
+				}
+			}
+		}
+		System.out.println("Queries: " + queries.size() + ", exact positions: " + (topK > 0 ? "top " + topK : "all"));
+		System.out.println("Full: predictions " + fullPredictions + ", time(ms) " + fullNanos/1000000);
+		System.out.println("Adaptive: predictions " + adaptivePredictions + " (avoided " + avoided + "), time(ms) " + adaptiveNanos/1000000);
+		System.out.println("Queries with differing ranking: " + mismatches);
+	}
+
+	/**
+	 * @return rankScores in ranked order
+	 */
+	private static double[] rankScores(Query q){
+		double[] scores = new double[q.getNumRecords()];
+		for(int i = 0; i < scores.length; i++) scores[i] = q.getRecordAt(i).getRankScore();
+		return scores;
+	}
+
+
+	/**
+	 * deterministic stand in model: logistic of the sum of the difference features
+	 */
+	static class LinearContinuous implements MSLRcontinuousModel {
+
+		public double predict(String difference) {
+			String[] fields = difference.split(",");
+			double sum = 0;
+			for(int i = 1; i < fields.length; i++) sum += Double.parseDouble(fields[i]);
+			return 1.0/(1.0 + Math.exp(-sum/100.0));
+		}
+	}
+}
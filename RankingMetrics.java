@@ -0,0 +1,227 @@
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * For Learning to Rank Machine Learning Project, SJSU 185C/267
+ *
+ * Small process wide metrics registry used by Data_Prep, Query and TestRanking
+ *
+ * - counters for records/queries read, pairwise records written (Data_Prep option 4), predictions made
+ *   (and skipped by adaptive ranking) and bytes read/written
+ * - latency histograms for each stage (parse, difference, predict, sort, metric)
+ *
+ * Summary is available as JSON through toJson().  Drivers call reportSummary() at the end of a run,
+ * which prints the summary and, if -Dmslr.metrics.file=<path> is set, writes it to that file.
+ * -Dmslr.metrics.interval=<seconds> starts a periodic report to System.out
+ *
+ * byte counts are taken from line lengths (chars), MSLR files are plain ascii so this matches bytes
+ */
+public class RankingMetrics {
+
+	enum Counter { RECORDS, QUERIES, PAIRS, PREDICTIONS, PREDICTIONS_AVOIDED, BYTES_READ, BYTES_WRITTEN }
+
+	enum Stage { PARSE, DIFFERENCE, PREDICT, SORT, METRIC }
+
+	private static final AtomicLong[] counters = new AtomicLong[Counter.values().length];
+	private static final LatencyHistogram[] stages = new LatencyHistogram[Stage.values().length];
+	private static final long startTime = System.nanoTime();
+	private static Thread reporter;
+
+	static {
+		for(int i = 0; i < counters.length; i++) counters[i] = new AtomicLong();
+		for(int i = 0; i < stages.length; i++) stages[i] = new LatencyHistogram();
+	}
+
+	private RankingMetrics(){}
+
+	/**
+	 *
+	 * @param c counter to increment by 1
+	 */
+	static void increment(Counter c){
+		counters[c.ordinal()].incrementAndGet();
+	}
+
+	/**
+	 *
+	 * @param c counter
+	 * @param amount amount to add
+	 */
+	static void add(Counter c, long amount){
+		counters[c.ordinal()].addAndGet(amount);
+	}
+
+	/**
+	 *
+	 * @param c
+	 * @return current value of counter
+	 */
+	static long get(Counter c){
+		return counters[c.ordinal()].get();
+	}
+
+	/**
+	 * usage: long t = RankingMetrics.start(); ...work... RankingMetrics.stop(Stage.PARSE, t);
+	 * @return start timestamp (ns)
+	 */
+	static long start(){
+		return System.nanoTime();
+	}
+
+	/**
+	 * records time elapsed since startNanos against stage
+	 * @param stage
+	 * @param startNanos value returned by start()
+	 */
+	static void stop(Stage stage, long startNanos){
+		stages[stage.ordinal()].record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 *
+	 * @param stage
+	 * @return histogram of latencies recorded for stage
+	 */
+	static LatencyHistogram getHistogram(Stage stage){
+		return stages[stage.ordinal()];
+	}
+
+	/**
+	 * clears all counters and histograms
+	 */
+	static void reset(){
+		for(AtomicLong c : counters) c.set(0);
+		for(LatencyHistogram h : stages) h.reset();
+	}
+
+	/**
+	 *
+	 * @return JSON summary of all counters and stage latencies
+	 */
+	static String toJson(){
+		StringBuilder json = new StringBuilder();
+		json.append("{\"elapsedMs\":").append((System.nanoTime() - startTime)/1000000);
+		json.append(",\"counters\":{");
+		for(Counter c : Counter.values()){
+			if(c.ordinal() > 0) json.append(',');
+			json.append('"').append(c.name().toLowerCase()).append("\":").append(get(c));
+		}
+		json.append("},\"stages\":{");
+		for(Stage s : Stage.values()){
+			if(s.ordinal() > 0) json.append(',');
+			json.append('"').append(s.name().toLowerCase()).append("\":");
+			stages[s.ordinal()].appendJson(json);
+		}
+		json.append("}}");
+		return json.toString();
+	}
+
+	/**
+	 * prints summary to System.out and to file given by -Dmslr.metrics.file (if set)
+	 */
+	static void reportSummary(){
+		String json = toJson();
+		System.out.println("Metrics: " + json);
+		String path = System.getProperty("mslr.metrics.file");
+		if(path == null) return;
+		try{
+			PrintWriter out = new PrintWriter(path);
+			out.println(json);
+			out.close();
+		}
+		catch(Exception e){
+			System.out.println("Could not write metrics to " + path + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * starts daemon thread printing JSON summary every -Dmslr.metrics.interval seconds (if set)
+	 * @param out destination for periodic summaries
+	 */
+	static synchronized void startPeriodicReport(final PrintStream out){
+		final long interval = Long.getLong("mslr.metrics.interval", 0);
+		if(interval <= 0 || reporter != null) return;
+		reporter = new Thread("metrics-reporter"){
+			public void run(){
+				try{
+					while(true){
+						Thread.sleep(interval * 1000);
+						out.println("Metrics: " + toJson());
+					}
+				}
+				catch(InterruptedException e){
+					// stop reporting
+				}
+			}
+		};
+		reporter.setDaemon(true);
+		reporter.start();
+	}
+
+
+	/**
+	 * Latency histogram with power of two nanosecond buckets (bucket b holds [2^b, 2^(b+1)) ns)
+	 * percentiles are reported as the upper bound of the bucket they fall in
+	 */
+	static class LatencyHistogram {
+
+		private final AtomicLongArray buckets = new AtomicLongArray(64);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong totalNanos = new AtomicLong();
+		private final AtomicLong maxNanos = new AtomicLong();
+
+		void record(long nanos){
+			if(nanos < 1) nanos = 1;
+			buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(nanos));
+			count.incrementAndGet();
+			totalNanos.addAndGet(nanos);
+			long max = maxNanos.get();
+			while(nanos > max && !maxNanos.compareAndSet(max, nanos)) max = maxNanos.get();
+		}
+
+		long getCount(){
+			return count.get();
+		}
+
+		long getTotalNanos(){
+			return totalNanos.get();
+		}
+
+		/**
+		 *
+		 * @param p percentile 0-1
+		 * @return upper bound (ns) of bucket containing percentile p, 0 if empty
+		 */
+		long percentile(double p){
+			long n = count.get();
+			if(n == 0) return 0;
+			long target = (long) Math.ceil(p * n);
+			long seen = 0;
+			for(int b = 0; b < 64; b++){
+				seen += buckets.get(b);
+				if(seen >= target) return b == 62 ? Long.MAX_VALUE : (1L << (b + 1)) - 1;
+			}
+			return maxNanos.get();
+		}
+
+		void reset(){
+			for(int b = 0; b < 64; b++) buckets.set(b, 0);
+			count.set(0);
+			totalNanos.set(0);
+			maxNanos.set(0);
+		}
+
+		void appendJson(StringBuilder json){
+			long n = count.get();
+			json.append("{\"count\":").append(n);
+			json.append(",\"totalMs\":").append(totalNanos.get()/1000000);
+			json.append(",\"meanNs\":").append(n == 0 ? 0 : totalNanos.get()/n);
+			json.append(",\"p50Ns\":").append(percentile(0.5));
+			json.append(",\"p99Ns\":").append(percentile(0.99));
+			json.append(",\"maxNs\":").append(maxNanos.get());
+			json.append('}');
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/**
+ * For Learning to Rank Machine Learning Project, SJSU 185C/267
+ *
+ * Aggregate of per query evaluation results (NDCG, normalized error) for TestRanking and ShardCoordinator.
+ * Queries with no relevant documents (ideal DCG 0, NDCG NaN) are counted but left out of the mean NDCG.
+ *
+ * Per query results are exchanged between worker and coordinator as lines:
+ * 		qid,number of documents,NDCG,normalized error
+ */
+public class RankingReport {
+
+	private long numQueries;
+	private long numDocuments;
+	private long numUndefined; // NDCG NaN
+	private double totalNDCG;
+	private double totalError;
+
+	/**
+	 * adds result of one query
+	 * @param numDocs documents in query
+	 * @param nDCG
+	 * @param nError
+	 */
+	void add(int numDocs, double nDCG, double nError){
+		numQueries++;
+		numDocuments += numDocs;
+		if(Double.isNaN(nDCG)) numUndefined++;
+		else totalNDCG += nDCG;
+		totalError += nError;
+	}
+
+	/**
+	 * adds result line (see class comment)
+	 * @param line
+	 */
+	void add(String line){
+		String[] fields = line.split(",");
+		add(Integer.parseInt(fields[1]), Double.parseDouble(fields[2]), Double.parseDouble(fields[3]));
+	}
+
+	/**
+	 *
+	 * @return result line for one query (see class comment)
+	 */
+	static String resultLine(int queryId, int numDocs, double nDCG, double nError){
+		return queryId + "," + numDocs + "," + nDCG + "," + nError;
+	}
+
+	/**
+	 *
+	 * @return number of queries added
+	 */
+	long getNumQueries(){
+		return numQueries;
+	}
+
+	/**
+	 *
+	 * @return mean NDCG over queries with defined NDCG
+	 */
+	double getMeanNDCG(){
+		long defined = numQueries - numUndefined;
+		return defined == 0 ? Double.NaN : totalNDCG/defined;
+	}
+
+	/**
+	 *
+	 * @return mean normalized error over all queries
+	 */
+	double getMeanError(){
+		return numQueries == 0 ? Double.NaN : totalError/numQueries;
+	}
+
+	/**
+	 * summary for output at end of run
+	 */
+	public String toString(){
+		return "Queries: " + numQueries + " (" + numUndefined + " without relevant documents), Documents: " + numDocuments
+				+ "\nMean NDCG: " + getMeanNDCG() + " Mean Normalized Error: " + getMeanError();
+	}
+}
@@ -21,8 +21,10 @@ public class Record{
 		private int relevance;  //objective score from file
 		private int queryId;
 		private String csvInput; 
-		private double[] features;
+		private FeatureProjection projection;
+		private double[] features; // projected features, see FeatureProjection
 		private double rankScore; // rank assigned by Query performRanking
+		private int documentNum = -1; // position in Query when added (file order)
 		
 		
 		/**
@@ -32,16 +34,55 @@ public class Record{
 		 * @param csvInputLine represents MSLR record
 		 */
 		public Record(String csvInputLine){
-			String[] fields = csvInputLine.split(",");
-			relevance = Integer.parseInt(fields[0]);
-			queryId = Integer.parseInt(fields[1]);
+			this(csvInputLine, FeatureProjection.ALL);
+		}
+		
+		/**
+		 *  as Record(csvInputLine), only the features in projection are parsed and stored
+		 *  (other fields are skipped without conversion)
+		 * @param csvInputLine represents MSLR record
+		 * @param projection features to keep
+		 */
+		public Record(String csvInputLine, FeatureProjection projection){
+			long startTime = RankingMetrics.start();
 			csvInput = csvInputLine;
-			features = new double[136];
-			for(int i = 0; i < 136; i++){
-				features[i] = Double.parseDouble(fields[i+2]);
+			this.projection = projection;
+			features = new double[projection.size()];
+			
+			int start = 0;
+			int end = csvInputLine.indexOf(',');
+			relevance = Integer.parseInt(csvInputLine.substring(start, end));
+			start = end + 1;
+			end = csvInputLine.indexOf(',', start);
+			queryId = Integer.parseInt(csvInputLine.substring(start, end < 0 ? csvInputLine.length() : end));
+			
+			int k = 0;
+			for(int i = 0; k < features.length; i++){
+				if(end < 0) throw new IllegalArgumentException("Record ends before feature " + projection.getFeatureIndex(k)
+						+ ": " + csvInputLine);
+				start = end + 1;
+				end = csvInputLine.indexOf(',', start);
+				if(projection.getFeatureIndex(k) == i){
+					features[k++] = Double.parseDouble(csvInputLine.substring(start, end < 0 ? csvInputLine.length() : end));
+				}
 			}
 			rankScore = -99999999;
+			RankingMetrics.increment(RankingMetrics.Counter.RECORDS);
+			RankingMetrics.stop(RankingMetrics.Stage.PARSE, startTime);
+		}
+		/**
+		 *  copy of r with its own (possibly normalized) feature values, not ranked and not in a Query
+		 * @param r
+		 */
+		Record(Record r){
+			csvInput = r.csvInput;
+			relevance = r.relevance;
+			queryId = r.queryId;
+			projection = r.projection;
+			features = r.features.clone();
+			rankScore = -99999999;
 		}
+		
 		/**
 		 *  rankScore is only relevant in a  collection of records, can be calculated
 		 *  within a Query by performRanking()
@@ -58,6 +99,22 @@ public class Record{
 		public double getRankScore(){
 			return this.rankScore;
 		}
+		/**
+		 *  set by Query.addRecord
+		 * @param documentNum position of record in its query, in order added
+		 */
+		void setDocumentNum(int documentNum){
+			this.documentNum = documentNum;
+		}
+		
+		/**
+		 * 
+		 * @return position of record in its query in order added, -1 if not in a Query
+		 */
+		public int getDocumentNum(){
+			return documentNum;
+		}
+		
 		/**
 		 * 
 		 * @param newRelevance
@@ -91,15 +148,32 @@ public class Record{
 			return queryId;
 		}
 		
+		/**
+		 * 
+		 * @return features parsed and stored by this Record
+		 */
+		public FeatureProjection getProjection(){
+			return projection;
+		}
+		
+		/**
+		 *  backing array of projected feature values (in place transforms eg. FeatureNormalizer)
+		 * @return features in projection order
+		 */
+		double[] getFeatures(){
+			return features;
+		}
+		
 		/**
 		 * 
 		 * @param i  feature index (0-135)
-		 * @return value of feature (if invalid index, 0)
+		 * @return value of feature (if invalid index or feature not in projection, 0)
 		 */
 		public double getFeatureVal(int i){
 			
 			try{
-				return features[i];
+				int k = projection.getPosition(i);
+				return k < 0 ? 0 : features[k];
 			}
 			catch(ArrayIndexOutOfBoundsException e){
 				System.out.println("Tried to access invalid feature num " + i + ", valid: 0-135\nZero returned");
@@ -110,12 +184,14 @@ public class Record{
 		
 		/**
 		 * 
-		 * @param i index of feature to be set (0-135 valid)
+		 * @param i index of feature to be set (0-135 valid, must be in projection)
 		 * @param val value to be applied
 		 */
 		public void setFeatureVal(int i, double val){
 			try{
-				features[i] = val;
+				int k = projection.getPosition(i);
+				if(k < 0) System.out.println("Feature num " + i + " not in projection " + projection + "\nNo value assigned");
+				else features[k] = val;
 			}
 			catch(ArrayIndexOutOfBoundsException e){
 				System.out.println("Tried to access invalid feature num " + i + ", valid: 0-135\nNo value assigned");
@@ -124,24 +200,41 @@ public class Record{
 		
 		/**
 		 *  a.Difference(b) -> a - b (String for outputfile or feeding to machine learning model)
+		 *  only projected features are included (both records must use the same projection)
 		 * @param b  Record to subtract from currRecord
 		 * @return difference between records for feeding to machine learning models
 		 */
 
 		public String difference(Record b){
+			long startTime = RankingMetrics.start();
 			String toReturn = "";
 			toReturn += this.relevance - b.getRelevance() > 0 ? 1 : -1;
-			for(int i = 0; i < features.length; i++){
+			for(int k = 0; k < features.length; k++){
 				
 				toReturn += ",";
 				//boolean values 95-99 produce categorical {-1, 0 , 1}  cast to int so they are enum for H20
-				if(i > 94 && i < 100) toReturn += (int) this.features[i] - b.getFeatureVal(i);
-				else toReturn += this.features[i] - b.getFeatureVal(i);
+				if(FeatureProjection.isCategorical(projection.getFeatureIndex(k))) toReturn += (int) this.features[k] - b.features[k];
+				else toReturn += this.features[k] - b.features[k];
 			}
-			
+			RankingMetrics.stop(RankingMetrics.Stage.DIFFERENCE, startTime);
 			return toReturn;
 		}
 		
+		/**
+		 *  a.difference(b, out) -> a - b written into out (for writers/models that take numbers rather than a String)
+		 *  categorical features 95-99 are computed as (int) a - b as in difference(b)
+		 * @param b  Record to subtract from currRecord (same projection)
+		 * @param out  receives projected feature differences, length >= getProjection().size()
+		 * @return label, 1 if this record is more relevant than b, else -1
+		 */
+		public int difference(Record b, double[] out){
+			long startTime = RankingMetrics.start();
+			FeatureKernels.INSTANCE.subtract(this.features, 0, b.features, 0, out, 0, features.length);
+			for(int k : projection.getCategoricalPositions()) out[k] = (int) this.features[k] - b.features[k];
+			RankingMetrics.stop(RankingMetrics.Stage.DIFFERENCE, startTime);
+			return this.relevance - b.getRelevance() > 0 ? 1 : -1;
+		}
+		
 		/**
 		 * returns rawcsvInput representation
 		 */
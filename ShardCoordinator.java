@@ -0,0 +1,139 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * For Learning to Rank Machine Learning Project, SJSU 185C/267
+ *
+ * Runs TestRanking over an MSLR csv with N worker JVMs so no single heap holds the whole evaluation.
+ * The input is split by query into shards of about equal document count (QueryIndex, built if missing),
+ * each shard is evaluated by a worker process (TestRanking --worker, started by a WorkerLauncher) that
+ * writes its per query results to a file, and the results are merged into the same report TestRanking prints.
+ * A worker that exits with an error, leaves no result file or runs past the timeout (killed) has its shard
+ * re-queued (up to 3 attempts).
+ *
+ * Usage: ShardCoordinator <input> <number of workers> [projection] [normalization spec]
+ * 		-Dmslr.shards=<n>            number of shards (default 2 x workers, smaller shards re-run faster)
+ * 		-Dmslr.worker.dir=<dir>      result/log files (default java.io.tmpdir)
+ * 		-Dmslr.worker.timeout=<secs> time limit for one attempt at a shard (default 3600, 0 for none)
+ * 		-Dmslr.worker.launcher=...   see WorkerLauncher
+ */
+public class ShardCoordinator {
+
+	private static final int MAX_ATTEMPTS = 3;
+
+	public static void main(String[] args) {
+
+		if(args.length < 2 || args.length > 4){
+			System.out.println("Usage: <input filepath> <number of workers> Optional: <features> <normalization spec>");
+			return;
+		}
+		try{
+			int numWorkers = Integer.parseInt(args[1]);
+			if(numWorkers <= 0) throw new IllegalArgumentException("Number of workers must be at least 1");
+			QueryIndex index = QueryIndex.open(args[0]);
+			if(index.getEntries().isEmpty()) throw new IllegalArgumentException("No queries in " + args[0] + ", nothing to evaluate");
+			int numShards = Math.min(Integer.getInteger("mslr.shards", 2 * numWorkers), index.getEntries().size());
+			// workers rebuild the split from the index and shard count, so use a count that splits into exactly that many
+			while(index.shards(numShards).size() != numShards) numShards--;
+			String[] options = Arrays.copyOfRange(args, 2, args.length);
+			//workers may start in another directory (eg. ssh home)
+			if(options.length == 2 && !options[1].equals("none")) options[1] = new File(options[1]).getAbsolutePath();
+
+			File dir = new File(System.getProperty("mslr.worker.dir", System.getProperty("java.io.tmpdir")));
+			WorkerLauncher launcher = (WorkerLauncher) Class.forName(System.getProperty("mslr.worker.launcher", "WorkerLauncher$Local"))
+					.getDeclaredConstructor().newInstance();
+
+			long timeoutMillis = Long.getLong("mslr.worker.timeout", 3600) * 1000;
+			RankingReport report = run(launcher, new File(args[0]).getAbsolutePath(), numShards, numWorkers, options, dir, timeoutMillis);
+			if(report != null) System.out.println(report);
+		}
+		catch(Exception e){
+			System.out.println(e.getMessage());
+		}
+	}
+
+	/**
+	 * evaluates all shards with at most numWorkers running at once
+	 * @param timeoutMillis attempts running longer are killed and count as failed, 0 for no limit
+	 * @return merged report, null if a shard failed MAX_ATTEMPTS times
+	 */
+	static RankingReport run(WorkerLauncher launcher, String input, int numShards, int numWorkers, String[] options, File dir,
+			long timeoutMillis) throws Exception{
+		LinkedList<Integer> pending = new LinkedList<Integer>();
+		for(int s = 0; s < numShards; s++) pending.add(s);
+		int[] attempts = new int[numShards];
+		Process[] running = new Process[numWorkers];
+		int[] runningShard = new int[numWorkers];
+		long[] startTime = new long[numWorkers];
+		File[] results = new File[numWorkers];
+		RankingReport report = new RankingReport();
+		int done = 0;
+
+		System.out.println("Evaluating " + input + " as " + numShards + " shards on " + numWorkers + " workers");
+		while(done < numShards){
+			for(int w = 0; w < numWorkers; w++){
+				if(running[w] == null && !pending.isEmpty()){
+					int shard = pending.removeFirst();
+					attempts[shard]++;
+					results[w] = new File(dir, "shard-" + shard + "-attempt-" + attempts[shard] + ".txt");
+					List<String> workerArgs = new ArrayList<String>(Arrays.asList("--worker", input, String.valueOf(shard),
+							String.valueOf(numShards), results[w].getAbsolutePath()));
+					workerArgs.addAll(Arrays.asList(options));
+					File log = new File(dir, "shard-" + shard + "-attempt-" + attempts[shard] + ".log");
+					running[w] = launcher.launch(w, workerArgs, log);
+					runningShard[w] = shard;
+					startTime[w] = System.currentTimeMillis();
+				}
+				if(running[w] == null) continue;
+				boolean timedOut = false;
+				if(!running[w].waitFor(50, TimeUnit.MILLISECONDS)){
+					if(timeoutMillis <= 0 || System.currentTimeMillis() - startTime[w] < timeoutMillis) continue;
+					// hung JVM or stalled ssh session
+					running[w].destroyForcibly();
+					running[w].waitFor();
+					timedOut = true;
+				}
+
+				int shard = runningShard[w];
+				int status = running[w].exitValue();
+				running[w] = null;
+				if(!timedOut && status == 0 && results[w].exists()){
+					mergeResults(results[w], report);
+					results[w].delete();
+					done++;
+					System.out.println("Shard " + shard + " done (" + done + "/" + numShards + ")");
+				}
+				else if(attempts[shard] < MAX_ATTEMPTS){
+					System.out.println("Shard " + shard + (timedOut ? " timed out after " + timeoutMillis/1000 + "s" :
+							" failed (exit status " + status + ")") + ", re-queued");
+					pending.add(shard);
+				}
+				else{
+					System.out.println("Shard " + shard + " failed " + MAX_ATTEMPTS + " times, see logs in " + dir);
+					for(Process p : running) if(p != null) p.destroy();
+					return null;
+				}
+			}
+		}
+		return report;
+	}
+
+	/**
+	 * adds per query result lines of a worker to report
+	 */
+	private static void mergeResults(File results, RankingReport report) throws Exception{
+		BufferedReader in = new BufferedReader(new FileReader(results));
+		String line = in.readLine();
+		while(line != null){
+			report.add(line);
+			line = in.readLine();
+		}
+		in.close();
+	}
+}
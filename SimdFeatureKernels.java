@@ -0,0 +1,74 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * For Learning to Rank Machine Learning Project, SJSU 185C/267
+ *
+ * FeatureKernels using the (incubator) Vector API, preferred species of the platform with a scalar tail.
+ *
+ * compile/run with --add-modules jdk.incubator.vector (loaded reflectively by FeatureKernels, which
+ * falls back to scalar loops when this class or the module is missing)
+ */
+class SimdFeatureKernels extends FeatureKernels {
+
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	void subtract(double[] a, int aOff, double[] b, int bOff, double[] out, int outOff, int length){
+		int k = 0;
+		for(int bound = SPECIES.loopBound(length); k < bound; k += SPECIES.length()){
+			DoubleVector va = DoubleVector.fromArray(SPECIES, a, aOff + k);
+			DoubleVector vb = DoubleVector.fromArray(SPECIES, b, bOff + k);
+			va.sub(vb).intoArray(out, outOff + k);
+		}
+		for(; k < length; k++) out[outOff + k] = a[aOff + k] - b[bOff + k];
+	}
+
+	void dot(double[] rows, int numFeatures, int numRows, double[] weights, double[] out){
+		int bound = SPECIES.loopBound(numFeatures);
+		for(int r = 0; r < numRows; r++){
+			int off = r*numFeatures;
+			DoubleVector acc = DoubleVector.zero(SPECIES);
+			int k = 0;
+			for(; k < bound; k += SPECIES.length()){
+				DoubleVector x = DoubleVector.fromArray(SPECIES, rows, off + k);
+				acc = x.fma(DoubleVector.fromArray(SPECIES, weights, k), acc);
+			}
+			double sum = acc.reduceLanes(VectorOperators.ADD);
+			for(; k < numFeatures; k++) sum += rows[off + k]*weights[k];
+			out[r] = sum;
+		}
+	}
+
+	void columnStats(double[] rows, int numFeatures, int numRows, double[] min, double[] max, double[] sum){
+		int bound = SPECIES.loopBound(numFeatures);
+		int k = 0;
+		// features in vector width chunks, each chunk reduced over all rows in registers
+		for(; k < bound; k += SPECIES.length()){
+			DoubleVector vMin = DoubleVector.broadcast(SPECIES, Double.POSITIVE_INFINITY);
+			DoubleVector vMax = DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY);
+			DoubleVector vSum = DoubleVector.zero(SPECIES);
+			for(int r = 0; r < numRows; r++){
+				DoubleVector x = DoubleVector.fromArray(SPECIES, rows, r*numFeatures + k);
+				vMin = vMin.min(x);
+				vMax = vMax.max(x);
+				vSum = vSum.add(x);
+			}
+			vMin.intoArray(min, k);
+			vMax.intoArray(max, k);
+			vSum.intoArray(sum, k);
+		}
+		for(; k < numFeatures; k++){
+			double lo = Double.POSITIVE_INFINITY, hi = Double.NEGATIVE_INFINITY, total = 0;
+			for(int r = 0; r < numRows; r++){
+				double x = rows[r*numFeatures + k];
+				if(x < lo) lo = x;
+				if(x > hi) hi = x;
+				total += x;
+			}
+			min[k] = lo;
+			max[k] = hi;
+			sum[k] = total;
+		}
+	}
+}
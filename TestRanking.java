@@ -1,76 +1,327 @@
+
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
 
 
 public class TestRanking {
 
+	//-Dmslr.ranking=full (default), adaptive (exact ranking, see Query.performRankingAdaptive)
+	//or adaptive:<k> (exact top k), adaptive applies to continuous models
+	static int adaptiveTopK = -1;
+
+	//-Dmslr.cascade=<m1,m2,...> also ranks each query with createStage1Model then the model re-ranking the
+	//first m documents, and reports NDCG@10 against predictions made for each m (see CascadeCurve)
+	//-Dmslr.cascade.stage1Cost=<c> cost of one stage 1 prediction relative to one model prediction (default 1)
+	static final int CASCADE_NDCG_K = 10;
+
 	/**
-	 * 
-	 * 
-	 * 
-	 * @param args  (path to MSLR.csv input file)
-	 *  
+	 * instantiate model here, MSLRbinaryModel or MSLRcontinuousModel (rankQuery picks the matching ranking)
+	 * pass every file the model is loaded from through modelFile(modelFiles, path), a change to any of them
+	 * invalidates the prediction cache
+	 *
+	 * @param projection features the model is given
+	 * @param modelFiles receives files model is loaded from
+	 * @return model
+	 */
+	static MSLRpairwiseModel createModel(FeatureProjection projection, List<String> modelFiles){
+		//return new MSLRmahoutRandomForest(modelFile(modelFiles, forestFile), modelFile(modelFiles, descriptorFile));
+		//return new MSLRmahoutLogisticRegression(modelFile(modelFiles, modelFile), projection);
+		//return new MSLRdummyModel();
+		return new MSLRdummyContinuous();
+	}
+
+	/**
+	 *
+	 * @param modelFiles files model is loaded from
+	 * @param path model file
+	 * @return path, added to modelFiles
+	 */
+	static String modelFile(List<String> modelFiles, String path){
+		modelFiles.add(path);
+		return path;
+	}
+
+	/**
+	 * instantiate cheap first stage model for -Dmslr.cascade here, MSLRpointwiseModel (one prediction per
+	 * document) or MSLRbinaryModel/MSLRcontinuousModel (every pair)
+	 *
+	 * @param projection features the model is given
+	 * @return model
+	 */
+	static MSLRmodel createStage1Model(FeatureProjection projection){
+		//return new MSLRlogisticModel(weightsFile, projection);
+		return new MSLRdummyPointwise();
+	}
+
+	/**
+	 *
+	 *
+	 *
+	 * @param args  (path to MSLR.csv input file) optionally followed by feature projection spec
+	 *   (eg. 0-94,100,130-135, see FeatureProjection) matching the features the model was trained on
+	 *   and normalization spec file (Data_Prep option 5) used when preparing the training data
+	 *   ("none" for no normalization) and prediction cache file (see PredictionCache, size cap
+	 *   -Dmslr.cache.mb, default 256)
+	 *
+	 *   --worker <input> <shard> <number of shards> <result file> [projection] [normalization spec]
+	 *   evaluates one shard of the input for ShardCoordinator, writing per query results to result file
+	 *
 	 */
 	public static void main(String[] args) {
-		
-		if(args.length != 1) {
-			System.out.println("Incorrect arguments supplied, supply filepath to input file");
+
+		if(args.length > 0 && args[0].equals("--worker")){
+			runWorker(args);
 			return;
 		}
-		
+		if(args.length < 1 || args.length > 4) {
+			System.out.println("Incorrect arguments supplied, supply filepath to input file " +
+					"(optional: feature projection, normalization spec, prediction cache file)");
+			return;
+		}
+		FeatureProjection projection = FeatureProjection.parse(args.length >= 2 ? args[1] : null);
+
+		RankingMetrics.startPeriodicReport(System.out);
 		try{
-			BufferedReader in = new BufferedReader(new FileReader(args[0]));
-			
+			adaptiveTopK = parseRankingMode(System.getProperty("mslr.ranking", "full"));
+			String normalizationSpec = (args.length >= 3 && !args[2].equals("none")) ? args[2] : null;
+			FeatureNormalizer normalizer = (normalizationSpec != null) ? FeatureNormalizer.load(normalizationSpec) : null;
+			BufferedReader in = CompressedIO.openReader(args[0]);
+
 			String line = in.readLine();
+			RankingMetrics.add(RankingMetrics.Counter.BYTES_READ, line.length() + 1);
 			int currQID, prevQID;
-			
-//instantiate model here   change performRanking call below to performContinuousRanking
-// to match type of model (binary or continuous)
-			
-			//MSLRmahoutRF bb = new MahoutRF(args[1], args[2]);
-			//MSLRdummyModel model = new MSLRdummyModel();
-			MSLRdummyContinuous model = new MSLRdummyContinuous();
-			Record currRecord = new Record(line);
+
+			List<String> modelFiles = new ArrayList<String>();
+			MSLRpairwiseModel model = createModel(projection, modelFiles);
+			String cascade = System.getProperty("mslr.cascade");
+			CascadeCurve curve = (cascade != null) ? new CascadeCurve(cascade) : null;
+			MSLRmodel stage1Model = (curve != null) ? createStage1Model(projection) : null;
+
+			PredictionCache cache = null;
+			if(args.length == 4){
+				if(modelFiles.isEmpty()) System.out.println("Warning: no model files named in createModel, the prediction cache " +
+						"will not notice a retrained model");
+				List<String> cacheKeyFiles = new ArrayList<String>(modelFiles);
+				cacheKeyFiles.add(args[0]);
+				if(normalizationSpec != null) cacheKeyFiles.add(normalizationSpec);
+				long fingerprint = PredictionCache.fingerprint(model.getClass().getName() + "/" + projection
+						+ (normalizationSpec != null ? "" : "/no normalization"), cacheKeyFiles.toArray(new String[0]));
+				cache = new PredictionCache(args[3], fingerprint, Long.getLong("mslr.cache.mb", 256) << 20);
+			}
+			RankingReport report = new RankingReport();
+			Record currRecord = new Record(line, projection);
 			currQID = currRecord.getQueryId();
 			Query currQuery = new Query(currQID);
+			RankingMetrics.increment(RankingMetrics.Counter.QUERIES);
+			currQuery.setPredictionCache(cache);
 			currQuery.addRecord(currRecord);
 			line = in.readLine();
-			
+
 			while(line != null){
+				RankingMetrics.add(RankingMetrics.Counter.BYTES_READ, line.length() + 1);
 				prevQID = currQID;
-				currRecord = new Record(line);
+				currRecord = new Record(line, projection);
 				currQID = currRecord.getQueryId();
 				if(currQID == prevQID) currQuery.addRecord(currRecord);
 				else{
-					//if using binary model
-					//currQuery.peformRanking(model);
-					//if using continuous model
-					currQuery.performRankingContinuous(model);
-					System.out.println(currQuery + ":");
-					currQuery.displayQueryDocumentRanking();
-					double idealDCG = currQuery.getIdealDCG();
-					double actualDCG = currQuery.getResultDCG();
-					double nDCG = actualDCG/idealDCG;
-					double nError = currQuery.getNormalizedError();
-					System.out.println("NDCG: " + nDCG + " Normalized Error: " + nError);
-					System.out.println("\n");
+					evaluate(currQuery, model, normalizer, report, true);
+					if(curve != null) curve.add(currQuery, stage1Model, model);
 					currQuery = new Query(currQID);
+					RankingMetrics.increment(RankingMetrics.Counter.QUERIES);
+					currQuery.setPredictionCache(cache);
 					currQuery.addRecord(currRecord);
 				}
 				line = in.readLine();
 			}
+			//last query in file
+			evaluate(currQuery, model, normalizer, report, true);
+			if(curve != null) curve.add(currQuery, stage1Model, model);
 			in.close();
+			if(cache != null){
+				System.out.println(cache);
+				cache.close();
+			}
+			System.out.println(report);
+			if(curve != null) System.out.print(curve);
+			RankingMetrics.reportSummary();
 		}
 		catch(FileNotFoundException e){
 			System.out.println("File supplied \"" + args[0] +"\" not found" );
 		}
-		catch(IOException e){
+		catch(Exception e){
 			System.out.println(e.getMessage());
 		}
-		
 
+
+	}
+
+	/**
+	 * ranks query with binary or continuous model
+	 * @param query
+	 * @param model
+	 */
+	static void rankQuery(Query query, MSLRpairwiseModel model){
+		if(model instanceof MSLRbinaryModel) query.peformRanking((MSLRbinaryModel) model);
+		else if(adaptiveTopK >= 0) query.performRankingAdaptive((MSLRcontinuousModel) model, adaptiveTopK);
+		else query.performRankingContinuous((MSLRcontinuousModel) model);
 	}
 
+	/**
+	 *
+	 * @param mode full, adaptive or adaptive:<k>
+	 * @return -1 for full ranking, otherwise top k for adaptive ranking (0 whole ranking)
+	 */
+	private static int parseRankingMode(String mode){
+		if(mode.equals("full")) return -1;
+		if(mode.equals("adaptive")) return 0;
+		if(mode.startsWith("adaptive:")) return Integer.parseInt(mode.substring("adaptive:".length()));
+		throw new IllegalArgumentException("Unknown ranking mode " + mode + " (full, adaptive or adaptive:<k>)");
+	}
+
+	/**
+	 * normalizes (if normalizer not null), ranks and evaluates query, adding result to report
+	 * @param display output ranking and metrics of query
+	 * @return {NDCG, normalized error}
+	 */
+	static double[] evaluate(Query query, MSLRpairwiseModel model, FeatureNormalizer normalizer, RankingReport report, boolean display){
+		if(normalizer != null) normalizer.normalize(query);
+		rankQuery(query, model);
+		if(display){
+			System.out.println(query + ":");
+			query.displayQueryDocumentRanking();
+		}
+		long startTime = RankingMetrics.start();
+		double idealDCG = query.getIdealDCG();
+		double actualDCG = query.getResultDCG();
+		double nDCG = actualDCG/idealDCG;
+		double nError = query.getNormalizedError();
+		RankingMetrics.stop(RankingMetrics.Stage.METRIC, startTime);
+		if(display){
+			System.out.println("NDCG: " + nDCG + " Normalized Error: " + nError);
+			if(adaptiveTopK >= 0 && !(model instanceof MSLRbinaryModel))
+				System.out.println("Predictions avoided: " + query.getAvoidedPredictions());
+			System.out.println("\n");
+		}
+		report.add(query.getNumRecords(), nDCG, nError);
+		return new double[]{nDCG, nError};
+	}
+
+	/**
+	 * worker mode for ShardCoordinator: evaluates queries of one shard (QueryIndex.shards) and writes
+	 * per query result lines (see RankingReport) to <result file>.tmp, renamed to <result file> when complete
+	 * exits with status 1 on failure
+	 * @param args --worker <input> <shard> <number of shards> <result file> [projection] [normalization spec]
+	 */
+	private static void runWorker(String[] args){
+		if(args.length < 5 || args.length > 7){
+			System.out.println("Usage: --worker <input> <shard> <number of shards> <result file> [projection] [normalization spec]");
+			System.exit(1);
+		}
+		try{
+			adaptiveTopK = parseRankingMode(System.getProperty("mslr.ranking", "full"));
+			FeatureProjection projection = FeatureProjection.parse(args.length >= 6 ? args[5] : null);
+			FeatureNormalizer normalizer = (args.length == 7 && !args[6].equals("none")) ? FeatureNormalizer.load(args[6]) : null;
+			QueryIndex index = QueryIndex.load(args[1]);
+			QueryIndex.Shard shard = index.shards(Integer.parseInt(args[3])).get(Integer.parseInt(args[2]));
+			MSLRpairwiseModel model = createModel(projection, new ArrayList<String>());
+			RankingReport report = new RankingReport();
+
+			File tmp = new File(args[4] + ".tmp");
+			PrintWriter out = new PrintWriter(tmp);
+			for(QueryIndex.Entry e : shard.entries){
+				Query query = index.loadQuery(e, projection);
+				RankingMetrics.increment(RankingMetrics.Counter.QUERIES);
+				double[] result = evaluate(query, model, normalizer, report, false);
+				out.println(RankingReport.resultLine(query.getQueryId(), query.getNumRecords(), result[0], result[1]));
+			}
+			out.close();
+			if(out.checkError() || !tmp.renameTo(new File(args[4]))) throw new Exception("Could not write " + args[4]);
+			System.out.println(shard + " done");
+			System.out.println(report);
+			RankingMetrics.reportSummary();
+		}
+		catch(Exception e){
+			System.out.println("Worker failed: " + e);
+			System.exit(1);
+		}
+	}
+
+
+	/**
+	 * NDCG@10 and predictions of cascade rankings (Query.performRankingCascade) over queries with relevant
+	 * documents, one row per first stage size m, plus the query's own (model only) ranking for comparison.
+	 * Stage 1 and stage 2 (model) predictions are reported separately and as a cost, stage 1 predictions
+	 * weighted by -Dmslr.cascade.stage1Cost.  Cascades rank copies of the query's Records, without the
+	 * prediction cache, so their predictions are model calls; the model only row counts pairs compared.
+	 */
+	static class CascadeCurve {
+
+		private final int[] sizes;
+		private final long[] stage1Predictions;
+		private final long[] stage2Predictions;
+		private final double[] totalNDCG;
+		private final double stage1Cost;
+		private long modelPredictions;
+		private double modelNDCG;
+		private long numDefined; // queries with relevant documents (NDCG defined)
+		private String models = "";
+
+		/**
+		 * @param sizes comma separated first stage sizes m
+		 */
+		CascadeCurve(String sizes){
+			String[] fields = sizes.split(",");
+			this.sizes = new int[fields.length];
+			for(int i = 0; i < fields.length; i++) this.sizes[i] = Integer.parseInt(fields[i].trim());
+			stage1Predictions = new long[fields.length];
+			stage2Predictions = new long[fields.length];
+			totalNDCG = new double[fields.length];
+			stage1Cost = Double.parseDouble(System.getProperty("mslr.cascade.stage1Cost", "1"));
+		}
+
+		/**
+		 * adds query already ranked (and normalized) by model, then ranks a copy of it with each cascade
+		 * (the query's Records are left as they are)
+		 */
+		void add(Query query, MSLRmodel stage1Model, MSLRpairwiseModel model){
+			models = stage1Model.getClass().getSimpleName() + " -> " + model.getClass().getSimpleName();
+			double nDCG = query.getNDCG(CASCADE_NDCG_K);
+			if(Double.isNaN(nDCG)) return;
+			long n = query.getNumRecords();
+			numDefined++;
+			modelNDCG += nDCG;
+			modelPredictions += n*(n - 1)/2 - query.getAvoidedPredictions();
+			for(int i = 0; i < sizes.length; i++){
+				Query cascade = new Query(query.getQueryId());
+				for(int d = 0; d < query.getNumRecords(); d++) cascade.addRecord(new Record(query.getRecordAt(d)));
+				cascade.performRankingCascade(stage1Model, sizes[i], model);
+				stage1Predictions[i] += cascade.getStage1Predictions();
+				stage2Predictions[i] += cascade.getPredictions() - cascade.getStage1Predictions();
+				totalNDCG[i] += cascade.getNDCG(CASCADE_NDCG_K);
+			}
+		}
+
+		/**
+		 * one line per m: mean NDCG@10 over queries with relevant documents, predictions per query
+		 */
+		public String toString(){
+			StringBuilder out = new StringBuilder("Cascade " + models + ", NDCG@" + CASCADE_NDCG_K + " vs predictions per query ("
+					+ numDefined + " queries with relevant documents, cost = stage 1 x " + stage1Cost + " + stage 2):\n");
+			out.append(row("model only", modelNDCG, 0, modelPredictions));
+			for(int i = 0; i < sizes.length; i++){
+				out.append(row("m=" + sizes[i], totalNDCG[i], stage1Predictions[i], stage2Predictions[i]));
+			}
+			return out.toString();
+		}
+
+		private String row(String name, double totalNDCG, long stage1, long stage2){
+			return "  " + name + ": NDCG@" + CASCADE_NDCG_K + " " + totalNDCG/numDefined
+					+ ", stage 1 " + (double) stage1/numDefined + ", stage 2 " + (double) stage2/numDefined
+					+ ", cost " + (stage1Cost*stage1 + stage2)/numDefined + "\n";
+		}
+	}
 }
@@ -0,0 +1,106 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * For Learning to Rank Machine Learning Project, SJSU 185C/267
+ *
+ * Starts a TestRanking worker process for ShardCoordinator.  Select an implementation with
+ * -Dmslr.worker.launcher=<class name> (default WorkerLauncher$Local); it needs a no argument constructor.
+ *
+ * Workers read the input/index and write result files by path, so remote workers need a shared filesystem.
+ */
+public interface WorkerLauncher {
+
+	/**
+	 *
+	 * @param workerNum slot number of worker (0 - number of workers-1)
+	 * @param testRankingArgs arguments for TestRanking main (starting with --worker)
+	 * @param log file for worker stdout/stderr
+	 * @return started process, exit status 0 means success
+	 */
+	Process launch(int workerNum, List<String> testRankingArgs, File log) throws IOException;
+
+
+	/**
+	 * worker JVM on this machine with the coordinator's java, class path and JVM options
+	 * (-Dmslr.worker.jvmArgs="<options>" replaces the JVM options)
+	 */
+	static class Local implements WorkerLauncher {
+
+		public Process launch(int workerNum, List<String> testRankingArgs, File log) throws IOException{
+			ProcessBuilder builder = new ProcessBuilder(javaCommand(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java", testRankingArgs));
+			builder.redirectErrorStream(true);
+			builder.redirectOutput(log);
+			return builder.start();
+		}
+
+		/**
+		 * @return java <jvm options> -cp <class path> TestRanking <args>
+		 */
+		static List<String> javaCommand(String java, List<String> testRankingArgs){
+			List<String> command = new ArrayList<String>();
+			command.add(java);
+			String jvmArgs = System.getProperty("mslr.worker.jvmArgs");
+			if(jvmArgs != null){
+				for(String arg : jvmArgs.trim().split("\\s+")) if(arg.length() > 0) command.add(arg);
+			}
+			else{
+				for(String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()){
+					// debugger/agent options can not be shared between processes
+					if(!arg.startsWith("-agentlib") && !arg.startsWith("-javaagent") && !arg.startsWith("-Xrunjdwp")) command.add(arg);
+				}
+			}
+			command.add("-cp");
+			command.add(absoluteClassPath(System.getProperty("java.class.path")));
+			command.add("TestRanking");
+			command.addAll(testRankingArgs);
+			return command;
+		}
+
+		/**
+		 * @return class path with relative entries made absolute (a remote worker starts in another directory)
+		 */
+		static String absoluteClassPath(String classPath){
+			StringBuilder absolute = new StringBuilder();
+			for(String entry : classPath.split(File.pathSeparator)){
+				if(entry.length() == 0) continue;
+				if(absolute.length() > 0) absolute.append(File.pathSeparator);
+				absolute.append(new File(entry).getAbsolutePath());
+			}
+			return absolute.toString();
+		}
+	}
+
+	/**
+	 * worker JVM on another node via ssh, nodes from -Dmslr.worker.hosts=host1,host2,... assigned round robin
+	 * by worker slot; java on the node is -Dmslr.worker.java (default "java"), class path as on this machine
+	 * (made absolute)
+	 */
+	static class RemoteShell implements WorkerLauncher {
+
+		private final String[] hosts;
+
+		public RemoteShell(){
+			String hostList = System.getProperty("mslr.worker.hosts");
+			if(hostList == null) throw new IllegalStateException("RemoteShell launcher requires -Dmslr.worker.hosts");
+			hosts = hostList.split(",");
+		}
+
+		public Process launch(int workerNum, List<String> testRankingArgs, File log) throws IOException{
+			List<String> command = new ArrayList<String>();
+			command.add("ssh");
+			command.add(hosts[workerNum % hosts.length].trim());
+			for(String arg : Local.javaCommand(System.getProperty("mslr.worker.java", "java"), testRankingArgs)){
+				// ssh passes one command line to the remote shell
+				command.add("'" + arg.replace("'", "'\\''") + "'");
+			}
+			ProcessBuilder builder = new ProcessBuilder(command);
+			builder.redirectErrorStream(true);
+			builder.redirectOutput(log);
+			return builder.start();
+		}
+	}
+}